@@ -0,0 +1,235 @@
+package com.learning.deisgnpatterns;
+
+/**
+ * An immutable amount of money in one currency, exact to the minor unit, without the rounding
+ * drift of double. Being its own type, a bare number cannot be passed where an amount is expected.
+ *
+ * The amount and currency are packed into a single long: the low 10 bits hold the ISO 4217
+ * numeric currency code and the other 54 bits the signed amount in minor units (paise, cents).
+ * All arithmetic is exact and throws ArithmeticException on overflow or when two amounts are
+ * in different currencies.
+ *
+ * ZERO carries no currency and is the neutral element for every currency, so empty totals can
+ * start from it.
+ *
+ * Loops that add up many amounts can work on the packed form directly: toPacked(), the static
+ * add/negate/applyRate on longs, and fromPacked() once at the end. They then allocate nothing per
+ * amount; 0L is the packed form of ZERO.
+ */
+public final class Money implements Comparable<Money> {
+
+    public enum Currency {
+        INR(356, "₹"),
+        USD(840, "$"),
+        EUR(978, "€");
+
+        final int code;
+        final String symbol;
+
+        Currency(int code, String symbol) {
+            this.code = code;
+            this.symbol = symbol;
+        }
+    }
+
+    public static final Money ZERO = new Money(0L);
+
+    // Every supported currency has 2 decimal places
+    private static final int MINOR_PER_MAJOR = 100;
+
+    private static final int CURRENCY_BITS = 10;
+    private static final long CURRENCY_MASK = (1L << CURRENCY_BITS) - 1;
+    private static final long MAX_MINOR = (1L << (63 - CURRENCY_BITS)) - 1;
+    private static final long MIN_MINOR = -(1L << (63 - CURRENCY_BITS));
+
+    // Index: ISO numeric code, Value: currency
+    private static final Currency[] BY_CODE = new Currency[1 << CURRENCY_BITS];
+
+    static {
+        for (Currency currency : Currency.values())
+            BY_CODE[currency.code] = currency;
+    }
+
+    private final long packed;
+
+    private Money(long packed) {
+        this.packed = packed;
+    }
+
+    /**
+     * Creates an amount given in minor units (e.g. paise).
+     */
+    public static Money of(long minorUnits, Currency currency) {
+        return new Money(pack(minorUnits, currency));
+    }
+
+    /**
+     * Creates a whole amount given in major units (e.g. rupees).
+     */
+    public static Money ofMajor(long majorUnits, Currency currency) {
+        return of(Math.multiplyExact(majorUnits, (long) MINOR_PER_MAJOR), currency);
+    }
+
+    /**
+     * Shorthand for ofMajor(rupees, INR).
+     */
+    public static Money inr(long rupees) {
+        return ofMajor(rupees, Currency.INR);
+    }
+
+    public long minorUnits() {
+        return packed >> CURRENCY_BITS;
+    }
+
+    /**
+     * Returns the currency, or null for ZERO.
+     */
+    public Currency currency() {
+        return BY_CODE[(int) (packed & CURRENCY_MASK)];
+    }
+
+    public Money plus(Money other) {
+        return new Money(add(packed, other.packed));
+    }
+
+    public Money minus(Money other) {
+        return new Money(add(packed, negate(other.packed)));
+    }
+
+    public Money negate() {
+        return fromPacked(negate(packed));
+    }
+
+    /**
+     * Multiplies by a whole quantity, e.g. the number of units of a line item.
+     */
+    public Money times(long quantity) {
+        Currency currency = currency();
+        return currency == null ? ZERO : of(Math.multiplyExact(minorUnits(), quantity), currency);
+    }
+
+    /**
+     * Returns the given rate of the amount, rounded half away from zero to a minor unit.
+     * The rate is in basis points: 1800 is 18%.
+     */
+    public Money applyRate(int basisPoints) {
+        return fromPacked(applyRate(packed, basisPoints));
+    }
+
+    /**
+     * Throws ArithmeticException unless the two amounts can be added, without computing the sum.
+     */
+    public void checkSameCurrency(Money other) {
+        checkSameCurrency(packed, other.packed);
+    }
+
+    public int compareTo(Money other) {
+        checkSameCurrency(packed, other.packed);
+        return Long.compare(minorUnits(), other.minorUnits());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).packed == packed;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(packed);
+    }
+
+    /**
+     * Formats as sign, symbol and major units, e.g. "₹1500.50" or "-₹0.50".
+     */
+    @Override
+    public String toString() {
+        return formatTo(new StringBuilder(16)).toString();
+    }
+
+    /**
+     * Appends the same text as toString() to the builder without creating intermediate strings.
+     */
+    public StringBuilder formatTo(StringBuilder out) {
+        Currency currency = currency();
+        long minor = minorUnits();
+        if (minor < 0)
+            out.append('-');
+        if (currency != null)
+            out.append(currency.symbol);
+        long abs = Math.abs(minor);
+        long fraction = abs % MINOR_PER_MAJOR;
+        out.append(abs / MINOR_PER_MAJOR).append('.');
+        if (fraction < 10)
+            out.append('0');
+        return out.append(fraction);
+    }
+
+    /**
+     * Returns the amount and currency packed into one long, for sums kept in a local variable.
+     */
+    public long toPacked() {
+        return packed;
+    }
+
+    /**
+     * Turns a value from toPacked() or the static arithmetic below back into Money.
+     */
+    public static Money fromPacked(long packed) {
+        if (packed == 0L)
+            return ZERO;
+        if (BY_CODE[(int) (packed & CURRENCY_MASK)] == null)
+            throw new IllegalArgumentException("Not a packed amount: " + packed);
+        return new Money(packed);
+    }
+
+    /**
+     * Adds two packed amounts exactly, like plus() without allocating.
+     */
+    public static long add(long a, long b) {
+        checkSameCurrency(a, b);
+        if ((a & CURRENCY_MASK) == 0)
+            return b;
+        if ((b & CURRENCY_MASK) == 0)
+            return a;
+        // The low bits of the first operand are cleared, so addExact sees only the amounts overflow
+        return Math.addExact(a & ~CURRENCY_MASK, b);
+    }
+
+    /**
+     * Negates a packed amount, like negate() without allocating.
+     */
+    public static long negate(long packed) {
+        long code = packed & CURRENCY_MASK;
+        if (code == 0)
+            return 0L;
+        return pack(Math.negateExact(packed >> CURRENCY_BITS), BY_CODE[(int) code]);
+    }
+
+    /**
+     * Applies a rate in basis points to a packed amount, like applyRate() without allocating.
+     */
+    public static long applyRate(long packed, int basisPoints) {
+        long code = packed & CURRENCY_MASK;
+        if (code == 0)
+            return 0L;
+
+        long product = Math.multiplyExact(packed >> CURRENCY_BITS, (long) basisPoints);
+        long result = product / 10_000;
+        if (Math.abs(product % 10_000) * 2 >= 10_000)
+            result += Long.signum(product);
+        return pack(result, BY_CODE[(int) code]);
+    }
+
+    private static long pack(long minorUnits, Currency currency) {
+        if (minorUnits < MIN_MINOR || minorUnits > MAX_MINOR)
+            throw new ArithmeticException("Amount out of range: " + minorUnits);
+        return (minorUnits << CURRENCY_BITS) | currency.code;
+    }
+
+    private static void checkSameCurrency(long a, long b) {
+        long codeA = a & CURRENCY_MASK;
+        long codeB = b & CURRENCY_MASK;
+        if (codeA != codeB && codeA != 0 && codeB != 0)
+            throw new ArithmeticException("Currency mismatch: " + BY_CODE[(int) codeA] + " and " + BY_CODE[(int) codeB]);
+    }
+}
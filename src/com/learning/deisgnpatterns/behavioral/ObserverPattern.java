@@ -1,6 +1,29 @@
 package com.learning.deisgnpatterns.behavioral;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
 
 /**
  * OBSERVER DESIGN PATTERN - JAVA IMPLEMENTATION
@@ -12,11 +35,38 @@ import java.util.*;
  * Real-World Analogy:
  * YouTube: Users subscribe to channels. When a channel uploads a video,
  * it notifies all subscribers.
+ *
+ * A channel can hand its notifications to a FanOutEngine instead of calling every subscriber
+ * on the uploading thread. The engine gives each subscriber type its own workers and bounded
+ * queues, so uploadVideo returns right away and a slow subscriber type only delays itself.
+ *
+ * Subscribers are kept in a SubscriberRegistry: subscribing returns a Subscription handle whose
+ * cancel() is O(1), and notification walks the registry without locks while others subscribe.
+ *
+ * A delivery pool can also send digests: uploads arriving close together are collected up to a
+ * count or a time window and handed to each subscriber as one update(List) call.
+ *
+ * For many channels, a PubSubBroker keeps every subscription once, in a two-way index of int
+ * ids, runs each channel on one of a few shard threads, and sends an upload posted to several
+ * channels to each subscriber only once.
+ *
+ * A channel can also record its uploads in a NotificationLog on disk. Subscribers keep an offset
+ * in the log, and after a restart or a spell offline they replay what they missed.
  */
 
 // Observer Interface
 interface Subscriber {
     void update(String message);  // Called when the subject publishes an update
+
+    /**
+     * Called with several updates at once when notifications are delivered as a digest.
+     * Subscribers that can send one message for all of them should override this.
+     * Callers such as replay handlers may pass any batch, so the list can be empty.
+     */
+    default void update(List<String> messages) {
+        for (String message : messages)
+            update(message);
+    }
 }
 
 // Concrete Observer - Email
@@ -31,6 +81,15 @@ class EmailSubscriber implements Subscriber {
     public void update(String title) {
         System.out.println("Email sent to " + email + ": " + title);
     }
+
+    /**
+     * One digest email for the whole batch.
+     */
+    public void update(List<String> titles) {
+        if (titles.isEmpty())
+            return;
+        System.out.println("Email digest sent to " + email + ": " + titles.size() + " new videos " + titles);
+    }
 }
 
 // Concrete Observer - Mobile App
@@ -45,46 +104,1389 @@ class MobileAppSubscriber implements Subscriber {
     public void update(String title) {
         System.out.println("Mobile notification sent to " + name + ": " + title);
     }
+
+    /**
+     * One grouped push notification for the whole batch.
+     */
+    public void update(List<String> titles) {
+        if (titles.isEmpty())
+            return;  // nothing to group, and no latest title to show
+        System.out.println("Mobile notification sent to " + name + ": " + titles.size() + " new videos, latest "
+                + titles.get(titles.size() - 1));
+    }
 }
 
 // Subject Interface
 interface Channel {
-    void subscribe(Subscriber sub);
+    Subscription subscribe(Subscriber sub);
     void unSubscribe(Subscriber sub);
     void uploadVideo(String title);
 }
 
+// Handle for one subscription; cancel() removes exactly this subscription in O(1)
+class Subscription {
+
+    private static final AtomicIntegerFieldUpdater<Subscription> CANCELLED =
+            AtomicIntegerFieldUpdater.newUpdater(Subscription.class, "cancelled");
+
+    private SubscriberRegistry registry;
+    private int slot;
+    private Subscriber subscriber;
+    private volatile int cancelled;
+
+    Subscription(SubscriberRegistry registry, int slot, Subscriber subscriber) {
+        this.registry = registry;
+        this.slot = slot;
+        this.subscriber = subscriber;
+    }
+
+    /**
+     * Stops notifications to the subscriber. Returns false if already cancelled.
+     * A notification that is being delivered at this moment may still reach it.
+     */
+    public boolean cancel() {
+        return markCancelled() && registry.release(slot, this);
+    }
+
+    public boolean isActive() {
+        return cancelled == 0;
+    }
+
+    public Subscriber getSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * Claims the right to free the slot; only the caller that gets true may release it.
+     */
+    boolean markCancelled() {
+        return CANCELLED.compareAndSet(this, 0, 1);
+    }
+}
+
+// Concurrent subscriber list for millions of subscribers with churn.
+// Subscriptions sit in fixed-size chunks of slots. A Subscription remembers its slot, so
+// cancelling clears one slot and puts it on a free list for the next subscriber. The slot holds
+// the handle itself rather than the subscriber, so a stale handle cannot clear a slot that was
+// reused, even by the same subscriber subscribing again.
+// Iteration reads the slots without locking and never throws ConcurrentModificationException;
+// it sees every subscriber present for the whole walk and may or may not see ones added or
+// removed during it. Subscribe and cancel take a short lock to pick or free a slot.
+class SubscriberRegistry {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int limit;              // every slot in use is below this
+    private AtomicInteger size = new AtomicInteger();
+
+    private int[] freeSlots = new int[64];   // guarded by this
+    private int freeCount;
+
+    public Subscription subscribe(Subscriber subscriber) {
+        int slot;
+        Subscription handle;
+        synchronized (this) {
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                slot = limit;
+                if (slot >>> CHUNK_BITS == chunks.length)
+                    grow();
+            }
+            handle = new Subscription(this, slot, subscriber);
+            chunks[slot >>> CHUNK_BITS].set(slot & CHUNK_MASK, handle);
+            if (slot == limit)
+                limit = slot + 1;  // published after the slot is filled
+        }
+        size.incrementAndGet();
+        return handle;
+    }
+
+    /**
+     * Removes one subscription of the subscriber by scanning the slots, O(n).
+     * Prefer Subscription.cancel(); this is for callers that kept no handle.
+     */
+    public boolean remove(Subscriber subscriber) {
+        int end = limit;
+        Chunk[] current = chunks;
+        for (int slot = 0; slot < end; slot++) {
+            Subscription handle = current[slot >>> CHUNK_BITS].get(slot & CHUNK_MASK);
+            if (handle != null && handle.getSubscriber() == subscriber && handle.markCancelled())
+                return release(slot, handle);  // also cancels the handle the subscriber was given
+        }
+        return false;
+    }
+
+    /**
+     * Calls the action for every subscriber, without locking. Returns how many were visited.
+     */
+    public int forEach(Consumer<? super Subscriber> action) {
+        int end = limit;  // read before chunks, so the chunks cover every slot below it
+        Chunk[] current = chunks;
+        int visited = 0;
+        for (int c = 0; c << CHUNK_BITS < end; c++) {
+            Chunk chunk = current[c];
+            int chunkEnd = Math.min(CHUNK_SIZE, end - (c << CHUNK_BITS));
+            for (int i = 0; i < chunkEnd; i++) {
+                Subscription handle = chunk.get(i);
+                if (handle != null) {
+                    action.accept(handle.getSubscriber());
+                    visited++;
+                }
+            }
+        }
+        return visited;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Frees the slot if it still holds this subscription.
+     */
+    boolean release(int slot, Subscription handle) {
+        if (!chunks[slot >>> CHUNK_BITS].compareAndSet(slot & CHUNK_MASK, handle, null))
+            return false;
+        synchronized (this) {
+            if (freeCount == freeSlots.length)
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            freeSlots[freeCount++] = slot;
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    private void grow() {
+        Chunk[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[chunks.length] = new Chunk();
+        chunks = grown;
+    }
+
+    // Non-generic subclass, so the chunk table can be a plain array
+    private static final class Chunk extends AtomicReferenceArray<Subscription> {
+
+        private static final long serialVersionUID = 1L;
+
+        Chunk() {
+            super(CHUNK_SIZE);
+        }
+    }
+}
+
+// What a full delivery queue does with a new notification
+enum OverflowPolicy {
+    BLOCK,        // the publisher waits for space
+    DROP_NEWEST,  // the new notification is dropped
+    DROP_OLDEST   // the oldest queued notification is dropped to make room
+}
+
+// Worker pool for one subscriber type.
+// Every subscriber is pinned to one worker, and each worker delivers its queue in order to all
+// of its subscribers, so each subscriber sees notifications in publish order.
+// A publish puts one entry per worker in the queues, not one per subscriber.
+// In digest mode a worker waits up to digestWindowMillis for more notifications after the first
+// one, up to digestSize, and delivers them together through update(List).
+// A delivery that fails with something other than a RuntimeException (e.g. an Error from a
+// subscriber) is recorded and the worker carries on; awaitIdle() and close() report it.
+class DeliveryPool implements AutoCloseable {
+
+    private String name;
+    private OverflowPolicy overflowPolicy;
+    private int digestSize;
+    private long digestWindowNanos;
+    private Worker[] workers;
+    private Thread[] threads;
+    private volatile boolean closed;
+    private AtomicReference<Throwable> failure = new AtomicReference<>();  // first delivery failure
+    private LongAdder delivered = new LongAdder();
+    private LongAdder calls = new LongAdder();
+    private LongAdder dropped = new LongAdder();
+    private AtomicLong pending = new AtomicLong();  // queued or running notifications
+
+    public DeliveryPool(String name, int workerCount, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this(name, workerCount, queueCapacity, overflowPolicy, 1, 0);
+    }
+
+    /**
+     * @param digestSize         most notifications delivered in one call; 1 turns digests off
+     * @param digestWindowMillis how long a worker waits for more notifications after the first
+     */
+    public DeliveryPool(String name, int workerCount, int queueCapacity, OverflowPolicy overflowPolicy,
+                        int digestSize, long digestWindowMillis) {
+        if (workerCount <= 0 || queueCapacity <= 0 || digestSize <= 0 || digestWindowMillis < 0)
+            throw new IllegalArgumentException("Invalid delivery pool size");
+        this.name = name;
+        this.overflowPolicy = overflowPolicy;
+        this.digestSize = digestSize;
+        this.digestWindowNanos = TimeUnit.MILLISECONDS.toNanos(digestWindowMillis);
+        this.workers = new Worker[workerCount];
+        this.threads = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(queueCapacity);
+            threads[i] = new Thread(workers[i], "fanout-" + name + "-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    public Subscription subscribe(Subscriber subscriber) {
+        return workerFor(subscriber).subscribers.subscribe(subscriber);
+    }
+
+    public void unSubscribe(Subscriber subscriber) {
+        workerFor(subscriber).subscribers.remove(subscriber);
+    }
+
+    /**
+     * Queues the notification on every worker, applying the overflow policy to full queues.
+     */
+    public void publish(String title) throws InterruptedException {
+        for (Worker worker : workers) {
+            // Counted before the closed check, so close() either waits for this entry or it is rejected
+            pending.incrementAndGet();
+            if (closed) {
+                finished(1);
+                throw new IllegalStateException("Delivery pool " + name + " is closed");
+            }
+            if (worker.queue.offer(title))
+                continue;
+            switch (overflowPolicy) {
+                case BLOCK:
+                    try {
+                        worker.queue.put(title);
+                    } catch (InterruptedException e) {
+                        finished(1);
+                        throw e;
+                    }
+                    break;
+                case DROP_NEWEST:
+                    finished(1);
+                    dropped.increment();
+                    break;
+                case DROP_OLDEST:
+                    while (!worker.queue.offer(title)) {
+                        if (worker.queue.poll() != null) {
+                            finished(1);
+                            dropped.increment();
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Waits until every queued notification has been delivered. Throws if a delivery failed
+     * with something the worker does not absorb (e.g. an Error from a subscriber).
+     */
+    public void awaitIdle() throws InterruptedException {
+        awaitPending();
+        checkFailure();
+    }
+
+    /**
+     * Rejects further publishes, delivers what is already queued, and waits for the workers
+     * to stop. Throws if a delivery failed, like awaitIdle().
+     */
+    public void close() {
+        closed = true;
+        try {
+            awaitPending();  // publishes that got past the closed check are delivered first
+            for (Thread thread : threads)
+                thread.interrupt();
+            for (Thread thread : threads)
+                thread.join();
+        } catch (InterruptedException e) {
+            for (Thread thread : threads)
+                thread.interrupt();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        checkFailure();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Deliveries made, one per subscriber per notification.
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * Calls to update(), one per subscriber per notification or digest.
+     */
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * Notifications dropped by the overflow policy, one per worker queue.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private Worker workerFor(Subscriber subscriber) {
+        return workers[(System.identityHashCode(subscriber) & 0x7fffffff) % workers.length];
+    }
+
+    private void checkFailure() {
+        Throwable e = failure.get();
+        if (e != null)
+            throw new IllegalStateException("Delivery pool " + name + " failed", e);
+    }
+
+    private void awaitPending() throws InterruptedException {
+        synchronized (pending) {
+            while (pending.get() > 0)
+                pending.wait();
+        }
+    }
+
+    private void finished(int notifications) {
+        if (pending.addAndGet(-notifications) == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    // Owns a shard of the subscribers and delivers its queue to them one notification at a time
+    private class Worker implements Runnable {
+
+        private BlockingQueue<String> queue;
+        private SubscriberRegistry subscribers = new SubscriberRegistry();
+
+        Worker(int queueCapacity) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        public void run() {
+            List<String> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                    long deadline = System.nanoTime() + digestWindowNanos;
+                    while (batch.size() < digestSize) {
+                        String next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null)
+                            break;
+                        batch.add(next);
+                    }
+                } catch (InterruptedException e) {
+                    if (closed)
+                        return;
+                    if (batch.isEmpty())
+                        continue;  // a stray interrupt, e.g. left behind by a subscriber
+                }
+
+                try {
+                    List<String> digest = batch.size() == 1 ? null : List.copyOf(batch);
+                    String single = batch.get(0);
+                    int count = subscribers.forEach(subscriber -> {
+                        try {
+                            if (digest == null)
+                                subscriber.update(single);
+                            else
+                                subscriber.update(digest);
+                        } catch (RuntimeException e) {
+                            // One failing subscriber must not stop delivery to the rest of the shard
+                        }
+                    });
+                    delivered.add((long) count * batch.size());
+                    calls.add(count);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    finished(batch.size());
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
+
+// Asynchronous fan-out for a channel: routes each subscriber to the pool for its type
+class FanOutEngine implements AutoCloseable {
+
+    private Map<Class<?>, DeliveryPool> pools = new ConcurrentHashMap<>();
+    private List<DeliveryPool> allPools = new CopyOnWriteArrayList<>();
+    private DeliveryPool defaultPool;
+
+    /**
+     * @param defaultPool pool for subscriber types without a pool of their own
+     */
+    public FanOutEngine(DeliveryPool defaultPool) {
+        this.defaultPool = defaultPool;
+        allPools.add(defaultPool);
+    }
+
+    /**
+     * Sends all subscribers of exactly this class to the pool. Call before subscribing them.
+     */
+    public FanOutEngine addPool(Class<? extends Subscriber> type, DeliveryPool pool) {
+        pools.put(type, pool);
+        allPools.add(pool);
+        return this;
+    }
+
+    public Subscription subscribe(Subscriber subscriber) {
+        return poolFor(subscriber).subscribe(subscriber);
+    }
+
+    public void unSubscribe(Subscriber subscriber) {
+        poolFor(subscriber).unSubscribe(subscriber);
+    }
+
+    public void publish(String title) throws InterruptedException {
+        for (DeliveryPool pool : allPools)
+            pool.publish(title);
+    }
+
+    public void awaitIdle() throws InterruptedException {
+        for (DeliveryPool pool : allPools)
+            pool.awaitIdle();
+    }
+
+    /**
+     * Closes every pool, delivering what is already queued. Throws the first pool failure.
+     */
+    public void close() {
+        RuntimeException failure = null;
+        for (DeliveryPool pool : allPools) {
+            try {
+                pool.close();
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    public List<DeliveryPool> getPools() {
+        return allPools;
+    }
+
+    private DeliveryPool poolFor(Subscriber subscriber) {
+        return pools.getOrDefault(subscriber.getClass(), defaultPool);
+    }
+}
+
 // Concrete Subject - YouTube Channel
 class YoutubeChannel implements Channel {
 
-    private List<Subscriber> subscribers;  // List of observers
+    private SubscriberRegistry subscribers;  // List of observers
     private String name;
+    private FanOutEngine fanOut;             // null: notify on the uploading thread
+    private NotificationLog log;             // null: uploads are not persisted
 
     public YoutubeChannel(String name) {
         this.name = name;
-        subscribers = new ArrayList<>();
+        subscribers = new SubscriberRegistry();
+    }
+
+    /**
+     * Channel whose notifications are delivered asynchronously by the engine.
+     */
+    public YoutubeChannel(String name, FanOutEngine fanOut) {
+        this(name);
+        this.fanOut = fanOut;
     }
 
-    // Add an observer
-    public void subscribe(Subscriber sub) {
-        subscribers.add(sub);
+    /**
+     * Channel that writes every upload to the log, and waits until it is on disk, before
+     * notifying. fanOut may be null.
+     */
+    public YoutubeChannel(String name, FanOutEngine fanOut, NotificationLog log) {
+        this(name, fanOut);
+        this.log = log;
     }
 
-    // Remove an observer
+    // Add an observer; cancel the returned handle to remove it in O(1)
+    public Subscription subscribe(Subscriber sub) {
+        if (fanOut != null)
+            return fanOut.subscribe(sub);
+        return subscribers.subscribe(sub);
+    }
+
+    // Remove an observer without a handle (scans the subscribers)
     public void unSubscribe(Subscriber sub) {
-        subscribers.remove(sub);
+        if (fanOut != null)
+            fanOut.unSubscribe(sub);
+        else
+            subscribers.remove(sub);
     }
 
     // Uploading new content - triggers notifications
     public void uploadVideo(String title) {
         System.out.println("New video uploaded: " + title);
+        if (log != null) {
+            try {
+                log.awaitDurable(log.append(title));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
         notifySubscribers(title);
     }
 
     // Notify all observers
-    private void notifySubscribers(String title) {
-        for (Subscriber s : subscribers) {
-            s.update(title);
+    void notifySubscribers(String title) {
+        if (fanOut != null) {
+            try {
+                fanOut.publish(title);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        subscribers.forEach(s -> s.update(title));
+    }
+}
+
+// Open-addressing set of non-negative ints, for compact subscription indexes.
+// Linear probing with backward-shift deletion, so there are no tombstones. Not thread-safe.
+class IntSet {
+
+    private static final int EMPTY = -1;
+
+    private int[] slots;
+    private int size;
+
+    public IntSet() {
+        slots = new int[4];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    /**
+     * Adds the value; returns false if it was already there.
+     */
+    public boolean add(int value) {
+        if ((size + 1) * 2 > slots.length)
+            resize(slots.length * 2);
+        int mask = slots.length - 1;
+        for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+            if (slots[i] == value)
+                return false;
+            if (slots[i] == EMPTY) {
+                slots[i] = value;
+                size++;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the value; returns false if it was not there.
+     */
+    public boolean remove(int value) {
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != value) {
+            if (slots[i] == EMPTY)
+                return false;
+            i = (i + 1) & mask;
+        }
+        // Move later entries of the probe run back into the hole
+        for (int next = (i + 1) & mask; slots[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hash(slots[next]) & mask;
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                slots[i] = slots[next];
+                i = next;
+            }
+        }
+        slots[i] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public boolean contains(int value) {
+        int mask = slots.length - 1;
+        for (int i = hash(value) & mask; slots[i] != EMPTY; i = (i + 1) & mask)
+            if (slots[i] == value)
+                return true;
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int value : slots)
+            if (value != EMPTY)
+                action.accept(value);
+    }
+
+    public int[] toArray() {
+        int[] values = new int[size];
+        int n = 0;
+        for (int value : slots)
+            if (value != EMPTY)
+                values[n++] = value;
+        return values;
+    }
+
+    private void resize(int capacity) {
+        int[] old = slots;
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+        for (int value : old)
+            if (value != EMPTY)
+                add(value);
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+// Central pub/sub broker for many channels.
+// Channels and subscribers get compact int ids, and subscriptions are kept in two IntSet
+// indexes: channel -> subscribers, owned by the shard thread of the channel, and subscriber ->
+// channels, behind striped locks. A subscriber following 5,000 channels is stored once, and
+// its feed can be listed. Every change and publish for a channel runs on that channel's shard,
+// in submission order. An upload to several channels reaches each subscriber once, however many
+// of those channels it follows.
+class PubSubBroker implements AutoCloseable {
+
+    private static final int STRIPES = 64;
+
+    private Shard[] shards;
+    private Thread[] threads;
+    private volatile boolean closed;
+    private AtomicReference<Throwable> failure = new AtomicReference<>();  // first task failure
+
+    // guarded by this; arrays are replaced when they grow, the IntSets inside are shared
+    private Map<String, Integer> channelIds = new HashMap<>();
+    private Map<Subscriber, Integer> subscriberIds = new IdentityHashMap<>();
+    private volatile String[] channelNames = new String[16];
+    private volatile IntSet[] channelSubscribers = new IntSet[16];  // only touched by the owning shard
+    private volatile Subscriber[] subscribers = new Subscriber[16];
+    private volatile IntSet[] feeds = new IntSet[16];                // guarded by stripe of the subscriber
+    private int channelCount;
+    private int subscriberCount;
+
+    private Object[] stripes = new Object[STRIPES];
+    private LongAdder deliveries = new LongAdder();
+    private LongAdder duplicatesSkipped = new LongAdder();
+    private AtomicLong pending = new AtomicLong();
+
+    public PubSubBroker(int shardCount) {
+        if (shardCount <= 0)
+            throw new IllegalArgumentException("Need at least one shard");
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Object();
+        shards = new Shard[shardCount];
+        threads = new Thread[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(failure);
+            threads[i] = new Thread(shards[i], "broker-shard-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Returns the id of the channel, creating it on first use.
+     */
+    public synchronized int channel(String name) {
+        Integer id = channelIds.get(name);
+        if (id != null)
+            return id;
+        if (channelCount == channelNames.length) {
+            channelNames = Arrays.copyOf(channelNames, channelCount * 2);
+            channelSubscribers = Arrays.copyOf(channelSubscribers, channelCount * 2);
+        }
+        channelNames[channelCount] = name;
+        channelSubscribers[channelCount] = new IntSet();
+        channelIds.put(name, channelCount);
+        return channelCount++;
+    }
+
+    /**
+     * Returns the id of the subscriber, registering it on first use.
+     */
+    public synchronized int register(Subscriber subscriber) {
+        Integer id = subscriberIds.get(subscriber);
+        if (id != null)
+            return id;
+        if (subscriberCount == subscribers.length) {
+            subscribers = Arrays.copyOf(subscribers, subscriberCount * 2);
+            feeds = Arrays.copyOf(feeds, subscriberCount * 2);
+        }
+        subscribers[subscriberCount] = subscriber;
+        feeds[subscriberCount] = new IntSet();
+        subscriberIds.put(subscriber, subscriberCount);
+        return subscriberCount++;
+    }
+
+    /**
+     * Subscribes; returns false if the subscriber already followed the channel.
+     */
+    public boolean subscribe(int subscriberId, int channelId) {
+        checkOpen();
+        IntSet feed = feeds[subscriberId];
+        // Submitted under the stripe lock, so the shard sees changes to one feed in feed order
+        synchronized (stripes[subscriberId % STRIPES]) {
+            if (!feed.add(channelId))
+                return false;
+            try {
+                submit(channelId, () -> channelSubscribers[channelId].add(subscriberId));
+            } catch (IllegalStateException e) {
+                feed.remove(channelId);  // closed meanwhile
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    public boolean unSubscribe(int subscriberId, int channelId) {
+        checkOpen();
+        IntSet feed = feeds[subscriberId];
+        synchronized (stripes[subscriberId % STRIPES]) {
+            if (!feed.remove(channelId))
+                return false;
+            try {
+                submit(channelId, () -> channelSubscribers[channelId].remove(subscriberId));
+            } catch (IllegalStateException e) {
+                feed.add(channelId);  // closed meanwhile
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Channels the subscriber follows.
+     */
+    public int[] channelsOf(int subscriberId) {
+        IntSet feed = feeds[subscriberId];
+        synchronized (stripes[subscriberId % STRIPES]) {
+            return feed.toArray();
+        }
+    }
+
+    public String channelName(int channelId) {
+        return channelNames[channelId];
+    }
+
+    /**
+     * Delivers the upload to every subscriber of the channel, on the channel's shard.
+     */
+    public void publish(String title, int channelId) {
+        submit(channelId, () -> deliver(title, channelId, null));
+    }
+
+    /**
+     * Delivers one upload posted to several channels; each subscriber gets it once.
+     */
+    public void publish(String title, int... channelIds) {
+        if (channelIds.length == 1) {
+            publish(title, channelIds[0]);
+            return;
+        }
+        DeliveredSet delivered = new DeliveredSet(subscribers.length);
+        for (int channelId : channelIds)
+            submit(channelId, () -> deliver(title, channelId, delivered));
+    }
+
+    /**
+     * Waits until every submitted change and publish has run. Throws if a task failed with
+     * something delivery does not absorb (e.g. an Error from a subscriber).
+     */
+    public void awaitIdle() throws InterruptedException {
+        awaitPending();
+        checkFailure();
+    }
+
+    public long getDeliveries() {
+        return deliveries.sum();
+    }
+
+    public long getDuplicatesSkipped() {
+        return duplicatesSkipped.sum();
+    }
+
+    /**
+     * Rejects further changes and publishes, lets the shards finish what was already submitted,
+     * and waits for them to stop. Throws if a task failed, like awaitIdle().
+     */
+    public void close() {
+        closed = true;
+        try {
+            awaitPending();  // submits that got past the closed check are queued before STOP
+            for (Shard shard : shards)
+                shard.submit(Shard.STOP);
+            for (Thread thread : threads)
+                thread.join();
+        } catch (InterruptedException e) {
+            for (Shard shard : shards)
+                shard.submit(Shard.STOP);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        checkFailure();
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Broker is closed");
+    }
+
+    private void checkFailure() {
+        Throwable e = failure.get();
+        if (e != null)
+            throw new IllegalStateException("Broker task failed", e);
+    }
+
+    private void awaitPending() throws InterruptedException {
+        synchronized (pending) {
+            while (pending.get() > 0)
+                pending.wait();
+        }
+    }
+
+    private void deliver(String title, int channelId, DeliveredSet delivered) {
+        Subscriber[] targets = subscribers;
+        long[] counts = new long[2];  // delivered, skipped
+        channelSubscribers[channelId].forEach(subscriberId -> {
+            if (delivered != null && !delivered.claim(subscriberId)) {
+                counts[1]++;
+                return;
+            }
+            try {
+                targets[subscriberId].update(title);
+            } catch (RuntimeException e) {
+                // One failing subscriber must not stop the rest of the channel
+            }
+            counts[0]++;
+        });
+        deliveries.add(counts[0]);
+        duplicatesSkipped.add(counts[1]);
+    }
+
+    private void submit(int channelId, Runnable task) {
+        // Counted before the closed check, so close() either waits for this task or it is rejected
+        pending.incrementAndGet();
+        if (closed) {
+            finished();
+            throw new IllegalStateException("Broker is closed");
+        }
+        shards[channelId % shards.length].submit(() -> {
+            try {
+                task.run();
+            } finally {
+                finished();
+            }
+        });
+    }
+
+    private void finished() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    // Single thread running the tasks for its channels in order.
+    // A task that throws is recorded and the shard carries on, so its other channels keep working.
+    private static class Shard implements Runnable {
+
+        static final Runnable STOP = () -> { };
+
+        private BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+        private AtomicReference<Throwable> failure;
+
+        Shard(AtomicReference<Throwable> failure) {
+            this.failure = failure;
+        }
+
+        void submit(Runnable task) {
+            tasks.add(task);
+        }
+
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = tasks.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task == STOP)
+                    return;
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+    }
+
+    // Subscriber ids that already got one multi-channel upload; one bit each.
+    // Sized when the upload is published; subscribers registered while it is being delivered
+    // are tracked in a small set instead.
+    private static class DeliveredSet {
+
+        private AtomicLongArray bits;
+        private Set<Integer> late;  // guarded by this
+
+        DeliveredSet(int subscribers) {
+            bits = new AtomicLongArray((subscribers + 63) / 64);
+        }
+
+        /**
+         * Marks the subscriber; returns false if it was marked already.
+         */
+        boolean claim(int subscriberId) {
+            int word = subscriberId >>> 6;
+            if (word >= bits.length())
+                return claimLate(subscriberId);
+            long mask = 1L << subscriberId;
+            while (true) {
+                long current = bits.get(word);
+                if ((current & mask) != 0)
+                    return false;
+                if (bits.compareAndSet(word, current, current | mask))
+                    return true;
+            }
+        }
+
+        private synchronized boolean claimLate(int subscriberId) {
+            if (late == null)
+                late = new HashSet<>();
+            return late.add(subscriberId);
+        }
+    }
+}
+
+// Append-only log of uploads on disk, so notifications survive a restart and subscribers that
+// were offline can catch up by replaying from their last offset.
+// Records go into memory-mapped segment files of a fixed size, named after the offset of their
+// first record. Each record is [length + 1][CRC32C][UTF-8 title]; the stored length is never 0,
+// even for an empty title, so a zero there marks the end.
+// A background thread forces the active segment to disk every syncMillis; awaitDurable() asks it
+// to sync early, so writers waiting at the same time share a single fsync (group commit).
+// If a sync fails the flusher stops, and every waiter, now and later, gets the error.
+// On open, segments are scanned and the log is cut at the first torn or corrupt record.
+class NotificationLog implements AutoCloseable {
+
+    private static final int HEADER = 8;
+    private static final String SUFFIX = ".log";
+    private static final String OFFSETS = "offsets";
+
+    private Path dir;
+    private int segmentBytes;
+    private List<Segment> segments = new CopyOnWriteArrayList<>();  // by base offset
+    private Map<String, Long> offsets = new ConcurrentHashMap<>();  // subscriber -> next offset to read
+    private volatile boolean offsetsDirty;
+
+    // guarded by this
+    private Segment active;
+    private long nextOffset;
+    private CRC32C crc = new CRC32C();
+
+    // Writers wait on synced, the flusher on syncDue, so waking one side never wakes the other
+    private ReentrantLock syncLock = new ReentrantLock();
+    private Condition syncDue = syncLock.newCondition();
+    private Condition synced = syncLock.newCondition();
+    private volatile long durable;       // every record below this offset is on disk
+    private boolean syncRequested;       // guarded by syncLock
+    private volatile boolean closed;
+    private volatile Throwable failure;  // first sync error; nothing becomes durable after it
+    private LongAdder syncs = new LongAdder();
+    private Thread flusher;
+
+    public NotificationLog(Path dir, int segmentBytes, long syncMillis) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        recover();
+        durable = nextOffset;
+
+        flusher = new Thread(() -> {
+            while (!closed) {
+                syncLock.lock();
+                try {
+                    if (!syncRequested && !closed)
+                        syncDue.await(syncMillis, TimeUnit.MILLISECONDS);
+                    syncRequested = false;
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    syncLock.unlock();
+                }
+                try {
+                    sync();
+                } catch (RuntimeException | Error e) {
+                    fail(e);
+                    return;
+                }
+            }
+        }, "log-flusher-" + dir.getFileName());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Appends the title and returns its offset. The record is readable at once and on disk
+     * after the next sync; use awaitDurable(offset) to wait for that.
+     */
+    public synchronized long append(String title) {
+        if (closed)
+            throw new IllegalStateException("Log is closed");
+        byte[] payload = title.getBytes(StandardCharsets.UTF_8);
+        int size = HEADER + payload.length;
+        if (size > segmentBytes)
+            throw new IllegalArgumentException("Title longer than a segment: " + payload.length + " bytes");
+        if (active.end + size > active.buffer.capacity())
+            roll();
+
+        crc.reset();
+        crc.update(payload);
+        MappedByteBuffer buffer = active.buffer;
+        int position = active.end;
+        buffer.put(position + HEADER, payload);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, payload.length + 1);
+        active.end = position + size;
+        active.add(position);
+        return nextOffset++;
+    }
+
+    /**
+     * Blocks until the record at the offset is on disk, triggering a sync if none is due.
+     * Throws IllegalStateException, caused by the sync error, once a sync has failed.
+     */
+    public void awaitDurable(long offset) throws InterruptedException {
+        syncLock.lock();
+        try {
+            while (durable <= offset) {
+                if (failure != null)
+                    throw new IllegalStateException("Log sync failed", failure);
+                if (closed)
+                    throw new IllegalStateException("Log is closed");
+                if (!syncRequested) {
+                    syncRequested = true;
+                    syncDue.signal();
+                }
+                synced.await();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Reads records from the offset in order, handing them over in batches of up to batchSize.
+     * Returns the offset after the last record read.
+     */
+    public long replay(long from, int batchSize, Consumer<List<String>> handler) {
+        List<String> batch = new ArrayList<>(batchSize);
+        long offset = from;
+        for (int i = segmentIndex(from); i >= 0 && i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            // Read in this order: once a later segment exists, no more records go into this one
+            boolean sealed = i < segments.size() - 1;
+            int count = segment.count;
+            int[] positions = segment.positions;
+            ByteBuffer buffer = segment.buffer.duplicate();
+            for (int n = (int) (offset - segment.baseOffset); n < count; n++) {
+                int position = positions[n];
+                byte[] payload = new byte[buffer.getInt(position) - 1];
+                buffer.get(position + HEADER, payload);
+                batch.add(new String(payload, StandardCharsets.UTF_8));
+                offset++;
+                if (batch.size() == batchSize) {
+                    handler.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!sealed)
+                break;
+        }
+        if (!batch.isEmpty())
+            handler.accept(batch);
+        return offset;
+    }
+
+    /**
+     * Starts tracking a subscriber at the end of the log, unless it already has an offset.
+     */
+    public void register(String subscriber) {
+        if (offsets.putIfAbsent(subscriber, getEndOffset()) == null)
+            offsetsDirty = true;
+    }
+
+    /**
+     * Delivers every record the subscriber has not seen yet as digests of up to batchSize,
+     * then records its new offset. Returns the number of records delivered.
+     */
+    public long catchUp(String name, Subscriber subscriber, int batchSize) {
+        long from = offsets.getOrDefault(name, 0L);
+        long next = replay(from, batchSize, subscriber::update);
+        commitOffset(name, next);
+        return next - from;
+    }
+
+    /**
+     * Saves the subscriber's position; it is written to disk with the next sync.
+     */
+    public void commitOffset(String subscriber, long nextOffset) {
+        offsets.put(subscriber, nextOffset);
+        offsetsDirty = true;
+    }
+
+    public long getOffset(String subscriber) {
+        return offsets.getOrDefault(subscriber, 0L);
+    }
+
+    public synchronized long getEndOffset() {
+        return nextOffset;
+    }
+
+    public long getDurableOffset() {
+        return durable;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public long getSyncs() {
+        return syncs.sum();
+    }
+
+    /**
+     * Stops the flusher, syncs everything appended so far and closes the segment files.
+     * Throws IOException if this or an earlier sync failed.
+     */
+    public void close() throws IOException {
+        syncLock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            syncDue.signal();
+        } finally {
+            syncLock.unlock();
+        }
+        // Not interrupted: an interrupt during saveOffsets() would close its channel under it.
+        // The flusher finishes the sync it is in and sees closed before waiting again.
+        boolean interrupted = false;
+        while (flusher.isAlive()) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        try {
+            if (failure == null)
+                sync();
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        } finally {
+            for (Segment segment : segments)
+                segment.channel.close();
+        }
+        if (failure != null)
+            throw new IOException("Cannot sync " + dir, failure);
+    }
+
+    private void sync() {
+        long end;
+        Segment segment;
+        synchronized (this) {
+            end = nextOffset;
+            segment = active;
+        }
+        try {
+            // Earlier segments were forced when the log rolled past them
+            if (end > durable) {
+                segment.buffer.force();
+                syncs.increment();
+            }
+            if (offsetsDirty) {
+                offsetsDirty = false;
+                saveOffsets();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot sync " + dir, e);
+        }
+        syncLock.lock();
+        try {
+            durable = end;
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // Records the first sync error and wakes every writer waiting for durability
+    private void fail(Throwable error) {
+        syncLock.lock();
+        try {
+            if (failure == null)
+                failure = error;
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void roll() {
+        try {
+            active.buffer.force();
+            active = openSegment(nextOffset);
+            segments.add(active);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot roll " + dir, e);
+        }
+    }
+
+    private int segmentIndex(long offset) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).baseOffset <= offset)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return segments.isEmpty() || segments.get(low).baseOffset > offset ? -1 : low;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+
+        CRC32C check = new CRC32C();
+        boolean broken = false;
+        for (Path file : files) {
+            long baseOffset = Long.parseLong(file.getFileName().toString().replace(SUFFIX, ""));
+            if (broken || baseOffset != nextOffset) {
+                // Records after a torn or corrupt one are unreachable
+                Files.delete(file);
+                broken = true;
+                continue;
+            }
+            Segment segment = openSegment(baseOffset);
+            MappedByteBuffer buffer = segment.buffer;
+            int position = 0;
+            while (position + HEADER <= buffer.capacity()) {
+                int stored = buffer.getInt(position);
+                int length = stored - 1;
+                if (stored <= 0 || position + HEADER + length > buffer.capacity()) {
+                    broken = stored != 0;
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(position + HEADER, payload);
+                check.reset();
+                check.update(payload);
+                if ((int) check.getValue() != buffer.getInt(position + 4)) {
+                    broken = true;
+                    break;
+                }
+                segment.add(position);
+                position += HEADER + length;
+            }
+            // Clear a torn tail so the next append starts from a clean end marker
+            if (broken)
+                for (int i = position; i < buffer.capacity(); i++)
+                    buffer.put(i, (byte) 0);
+            segment.end = position;
+            segments.add(segment);
+            nextOffset += segment.count;
+        }
+        if (segments.isEmpty())
+            segments.add(openSegment(0));
+        active = segments.get(segments.size() - 1);
+        active.buffer.force();
+        loadOffsets();
+    }
+
+    private Segment openSegment(long baseOffset) throws IOException {
+        Path path = dir.resolve(String.format("%020d%s", baseOffset, SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = channel.size() > 0 ? channel.size() : segmentBytes;
+        return new Segment(baseOffset, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    private void saveOffsets() throws IOException {
+        StringBuilder text = new StringBuilder();
+        offsets.forEach((name, offset) -> text.append(name).append('\t').append(offset).append('\n'));
+        Path temp = dir.resolve(OFFSETS + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+            channel.force(true);
+        }
+        Files.move(temp, dir.resolve(OFFSETS), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadOffsets() throws IOException {
+        Path file = dir.resolve(OFFSETS);
+        if (!Files.exists(file))
+            return;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int tab = line.lastIndexOf('\t');
+            if (tab > 0)
+                offsets.put(line.substring(0, tab), Math.min(Long.parseLong(line.substring(tab + 1)), nextOffset));
+        }
+    }
+
+    // One mapped segment file; positions[i] is where the record at baseOffset + i starts
+    private static class Segment {
+
+        final long baseOffset;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        volatile int[] positions = new int[1_024];
+        volatile int count;   // records readable; written by the appender only
+        int end;              // next write position; guarded by the log
+
+        Segment(long baseOffset, FileChannel channel, MappedByteBuffer buffer) {
+            this.baseOffset = baseOffset;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        void add(int position) {
+            int[] current = positions;
+            if (count == current.length)
+                positions = current = Arrays.copyOf(current, count * 2);
+            current[count] = position;
+            count = count + 1;  // publishes the position to readers
         }
     }
 }
@@ -107,5 +1509,795 @@ public class ObserverPattern {
 
         // Uploading a video will notify all subscribers
         lld.uploadVideo("Observer Pattern");
+
+        System.out.println();
+        try {
+            printFanOutReport();
+            checkRegistryChurn();
+            printDigestReport();
+            printBrokerReport();
+            printLogReport();
+            checkLogRecovery();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Notifies 1M subscribers (999,000 fast, 1,000 slow at 2 ms each) synchronously and through
+     * the fan-out engine, and checks that every fast subscriber saw the uploads in order.
+     */
+    static void printFanOutReport() throws InterruptedException {
+        int uploads = 20;
+        List<Subscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < 999_000; i++)
+            subscribers.add(new OrderCheckingSubscriber());
+        for (int i = 0; i < 1_000; i++)
+            subscribers.add(new SlowSubscriber(2));
+
+        YoutubeChannel direct = new YoutubeChannel("direct");
+        for (Subscriber subscriber : subscribers)
+            direct.subscribe(subscriber);
+        long begin = System.nanoTime();
+        direct.notifySubscribers("Video 0");
+        double directMillis = (System.nanoTime() - begin) / 1e6;
+
+        try (FanOutEngine engine = new FanOutEngine(new DeliveryPool("fast", 2, 1_024, OverflowPolicy.BLOCK))
+                .addPool(SlowSubscriber.class, new DeliveryPool("slow", 16, 4, OverflowPolicy.DROP_OLDEST))) {
+            YoutubeChannel channel = new YoutubeChannel("fan-out", engine);
+            for (Subscriber subscriber : subscribers)
+                channel.subscribe(subscriber);
+
+            long[] publishNanos = new long[uploads - 1];
+            begin = System.nanoTime();
+            for (int i = 1; i < uploads; i++) {
+                long start = System.nanoTime();
+                channel.notifySubscribers("Video " + i);
+                publishNanos[i - 1] = System.nanoTime() - start;
+            }
+            engine.awaitIdle();
+            double drainMillis = (System.nanoTime() - begin) / 1e6;
+            Arrays.sort(publishNanos);
+
+            for (Subscriber subscriber : subscribers)
+                if (subscriber instanceof OrderCheckingSubscriber && ((OrderCheckingSubscriber) subscriber).last != uploads - 1)
+                    throw new IllegalStateException("Fast subscriber missed or reordered uploads");
+
+            System.out.println("=== Notifying " + subscribers.size() + " subscribers, 1,000 of them slow ===");
+            System.out.printf("synchronous:  upload blocked for %.0f ms%n", directMillis);
+            System.out.printf("fan-out:      upload returns in %.1f us (median), %.1f us (max); %d uploads delivered in %.0f ms%n",
+                    publishNanos[publishNanos.length / 2] / 1e3, publishNanos[publishNanos.length - 1] / 1e3, uploads - 1, drainMillis);
+            for (DeliveryPool pool : engine.getPools())
+                System.out.printf("  pool %-5s %,12d deliveries, %d notifications dropped%n", pool.getName(), pool.getDelivered(), pool.getDropped());
+        }
+        checkFanOutShutdown();
+    }
+
+    /**
+     * Checks that an Error thrown by a subscriber is reported by awaitIdle() and close() without
+     * stopping the worker, and that close() delivers what was queued and then rejects publishes.
+     */
+    static void checkFanOutShutdown() throws InterruptedException {
+        DeliveryPool pool = new DeliveryPool("crash", 1, 16, OverflowPolicy.BLOCK);
+        pool.subscribe(title -> {
+            if (title.equals("Boom"))
+                throw new AssertionError("subscriber crashed");
+        });
+        InboxSubscriber inbox = new InboxSubscriber();
+        pool.subscribe(inbox);
+        pool.publish("Boom");
+        pool.publish("After the crash");
+        try {
+            pool.awaitIdle();
+            throw new IllegalStateException("Subscriber Error was not reported");
+        } catch (IllegalStateException e) {
+            if (!(e.getCause() instanceof AssertionError))
+                throw e;
+        }
+        if (inbox.received == 0)  // it may also have got "Boom", depending on its place in the shard
+            throw new IllegalStateException("Worker stopped after a subscriber Error");
+        try {
+            pool.close();
+            throw new IllegalStateException("close() hid the subscriber Error");
+        } catch (IllegalStateException e) {
+            if (!(e.getCause() instanceof AssertionError))
+                throw e;
+        }
+
+        InboxSubscriber reader = new InboxSubscriber();
+        FanOutEngine clean = new FanOutEngine(new DeliveryPool("clean", 2, 1_024, OverflowPolicy.BLOCK));
+        clean.subscribe(reader);
+        for (int i = 0; i < 1_000; i++)
+            clean.publish("Story " + i);
+        clean.close();
+        if (reader.received != 1_000)
+            throw new IllegalStateException("close() dropped " + (1_000 - reader.received) + " queued notifications");
+        try {
+            clean.publish("Too late");
+            throw new IllegalStateException("Publish after close was accepted");
+        } catch (IllegalStateException expected) {
+        }
+        clean.awaitIdle();  // nothing pending, so this returns at once
+        System.out.println("fan-out:     subscriber Errors reported, close() drains and then rejects publishes");
+    }
+
+    /**
+     * Two threads publish to 1M subscribers while four threads subscribe and cancel at random.
+     * Checks that nothing throws, that the registry size matches the live handles, and compares
+     * cancel() with ArrayList.remove(Object).
+     */
+    static void checkRegistryChurn() throws InterruptedException {
+        SubscriberRegistry registry = new SubscriberRegistry();
+        for (int i = 0; i < 1_000_000; i++)
+            registry.subscribe(new CountingSubscriber());
+
+        int churners = 4, opsPerChurner = 500_000;
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong walks = new AtomicLong();
+        AtomicLong visited = new AtomicLong();
+        List<Subscription> survivors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+        for (int p = 0; p < 2; p++) {
+            threads.add(new Thread(() -> {
+                while (running.get()) {
+                    visited.addAndGet(registry.forEach(s -> s.update("churn")));
+                    walks.incrementAndGet();
+                }
+            }));
+        }
+        long begin = System.nanoTime();
+        for (int c = 0; c < churners; c++) {
+            int seed = c;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                List<Subscription> mine = new ArrayList<>();
+                for (int op = 0; op < opsPerChurner; op++) {
+                    if (mine.isEmpty() || random.nextBoolean()) {
+                        mine.add(registry.subscribe(new CountingSubscriber()));
+                    } else {
+                        // Swap-remove a random handle, so picking it is O(1) as well
+                        int pick = random.nextInt(mine.size());
+                        Subscription handle = mine.get(pick);
+                        mine.set(pick, mine.get(mine.size() - 1));
+                        mine.remove(mine.size() - 1);
+                        if (!handle.cancel())
+                            throw new IllegalStateException("Live handle could not be cancelled");
+                    }
+                }
+                survivors.addAll(mine);
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+            thread.start();
+        }
+        for (Thread thread : threads.subList(2, threads.size()))
+            thread.join();
+        double churnSeconds = (System.nanoTime() - begin) / 1e9;
+        running.set(false);
+        for (Thread thread : threads.subList(0, 2))
+            thread.join();
+
+        if (!failures.isEmpty())
+            throw new IllegalStateException("Churn failed", failures.get(0));
+        int expected = 1_000_000 + survivors.size();
+        if (registry.size() != expected || registry.forEach(s -> { }) != expected)
+            throw new IllegalStateException("Registry has " + registry.size() + " subscribers, expected " + expected);
+
+        // A handle outlives remove(); once the subscriber re-subscribes into the freed slot,
+        // the stale handle must not cancel the new subscription
+        SubscriberRegistry reused = new SubscriberRegistry();
+        Subscriber returning = new CountingSubscriber();
+        Subscription stale = reused.subscribe(returning);
+        if (!reused.remove(returning) || stale.isActive())
+            throw new IllegalStateException("remove() did not cancel the subscription");
+        Subscription fresh = reused.subscribe(returning);
+        if (stale.cancel() || !fresh.isActive() || reused.size() != 1)
+            throw new IllegalStateException("Stale handle cancelled the new subscription");
+
+        // Unsubscribing 10,000 of 1M: handles vs ArrayList.remove(Object)
+        List<Subscriber> list = new ArrayList<>();
+        SubscriberRegistry timed = new SubscriberRegistry();
+        List<Subscription> handles = new ArrayList<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            Subscriber subscriber = new CountingSubscriber();
+            list.add(subscriber);
+            handles.add(timed.subscribe(subscriber));
+        }
+        long listBegin = System.nanoTime();
+        for (int i = 0; i < 10_000; i++)
+            list.remove(handles.get(i * 97).getSubscriber());
+        double listMillis = (System.nanoTime() - listBegin) / 1e6;
+        long handleBegin = System.nanoTime();
+        for (int i = 0; i < 10_000; i++)
+            handles.get(i * 97).cancel();
+        double handleMillis = (System.nanoTime() - handleBegin) / 1e6;
+
+        System.out.println("=== Registry churn: 1M subscribers, 4 churn threads, 2 publishers ===");
+        System.out.printf("churn:     %,.0f subscribe/cancel ops/sec%n", churners * opsPerChurner / churnSeconds);
+        System.out.printf("publish:   %d walks during churn, %,.0f subscribers visited/sec%n",
+                walks.get(), visited.get() / churnSeconds);
+        System.out.printf("unsubscribe 10,000 of 1M: ArrayList %.1f ms, handles %.2f ms%n", listMillis, handleMillis);
+    }
+
+    /**
+     * Uploads a burst of 200 videos to 5,000 mailers, first one notification per call and then
+     * as digests of up to 100 within 50 ms, and compares messages sent and CPU used.
+     */
+    static void printDigestReport() throws InterruptedException {
+        try (FanOutEngine demo = new FanOutEngine(new DeliveryPool("demo", 1, 16, OverflowPolicy.BLOCK, 10, 50))) {
+            YoutubeChannel channel = new YoutubeChannel("Low Level Design", demo);
+            channel.subscribe(new EmailSubscriber("123@gmail.com"));
+            channel.subscribe(new MobileAppSubscriber("Eclipse"));
+            for (String title : new String[]{"Builder", "Visitor", "Memento"})
+                channel.notifySubscribers(title);
+            demo.awaitIdle();
+        }
+        new MobileAppSubscriber("Eclipse").update(List.of());  // an empty digest sends nothing
+
+        System.out.println("=== Burst of 200 uploads to 5,000 mailers ===");
+        for (int digestSize : new int[]{1, 100}) {
+            DeliveryPool pool = new DeliveryPool(digestSize == 1 ? "single" : "digest", 2, 1_024,
+                    OverflowPolicy.BLOCK, digestSize, 50);
+            double millis, cpuMillis;
+            try (FanOutEngine engine = new FanOutEngine(pool)) {
+                for (int i = 0; i < 5_000; i++)
+                    engine.subscribe(new MailerSubscriber());
+                MailerSubscriber.MESSAGES.reset();
+
+                long cpuBefore = totalCpuNanos();
+                long begin = System.nanoTime();
+                for (int i = 0; i < 200; i++)
+                    engine.publish("Video " + i);
+                engine.awaitIdle();
+                millis = (System.nanoTime() - begin) / 1e6;
+                cpuMillis = (totalCpuNanos() - cpuBefore) / 1e6;
+            }
+
+            System.out.printf("%-7s %,11d notifications in %,9d messages, %6.0f ms, %6.0f ms CPU%n", pool.getName(),
+                    pool.getDelivered(), MailerSubscriber.MESSAGES.sum(), millis, cpuMillis);
+        }
+    }
+
+    /**
+     * Builds a broker with 100k channels and 10M subscriptions (1M subscribers following 10
+     * channels each, popularity following Zipf's law, plus one following 5,000), then measures
+     * publishing, a multi-channel upload with delivery dedupe, feed lookup and unsubscribing.
+     */
+    static void printBrokerReport() throws InterruptedException {
+        int channels = 100_000;
+        int subscribersCount = 1_000_000;
+        int follows = 10;
+
+        try (PubSubBroker broker = new PubSubBroker(4)) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < channels; i++)
+                broker.channel("Channel " + i);
+
+            double[] cumulative = new double[channels];
+            double weight = 0;
+            for (int i = 0; i < channels; i++)
+                cumulative[i] = weight += 1.0 / (i + 1);
+            Random random = new Random(42);
+
+            InboxSubscriber[] inboxes = new InboxSubscriber[subscribersCount];
+            long subscriptions = 0;
+            for (int i = 0; i < subscribersCount; i++) {
+                inboxes[i] = new InboxSubscriber();
+                int id = broker.register(inboxes[i]);
+                for (int n = 0; n < follows; ) {
+                    int channelId = Arrays.binarySearch(cumulative, random.nextDouble() * weight);
+                    if (broker.subscribe(id, channelId < 0 ? -channelId - 1 : channelId))
+                        n++;
+                }
+                subscriptions += follows;
+                // Keeps the shard queues from piling up millions of pending changes
+                if (i % 50_000 == 0)
+                    broker.awaitIdle();
+            }
+            InboxSubscriber powerUser = new InboxSubscriber();
+            int powerId = broker.register(powerUser);
+            for (int channelId = 0; channelId < channels; channelId += channels / 5_000)
+                broker.subscribe(powerId, channelId);
+            subscriptions += 5_000;
+            broker.awaitIdle();
+            double buildMillis = (System.nanoTime() - begin) / 1e6;
+
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            double heapMb = (runtime.totalMemory() - runtime.freeMemory()) / 1e6;
+
+            System.out.println("=== Broker with " + channels + " channels, " + subscriptions + " subscriptions ===");
+            System.out.printf("build:       %,.0f ms (%,.0f subscriptions/s), %,.0f MB heap in use%n",
+                    buildMillis, subscriptions / (buildMillis / 1e3), heapMb);
+
+            long delivered = broker.getDeliveries();
+            begin = System.nanoTime();
+            for (int channelId = 0; channelId < 1_000; channelId++)
+                broker.publish("Upload " + channelId, channelId);
+            broker.awaitIdle();
+            double publishMillis = (System.nanoTime() - begin) / 1e6;
+            delivered = broker.getDeliveries() - delivered;
+            System.out.printf("publish:     1,000 top channels, %,d deliveries in %,.0f ms (%,.0f deliveries/s)%n",
+                    delivered, publishMillis, delivered / (publishMillis / 1e3));
+
+            // One upload cross-posted to the 10 most popular channels
+            int[] crossPost = new int[10];
+            for (int i = 0; i < crossPost.length; i++)
+                crossPost[i] = i;
+            int[] before = new int[subscribersCount];
+            for (int i = 0; i < subscribersCount; i++)
+                before[i] = inboxes[i].received;
+            int powerBefore = powerUser.received;
+            delivered = broker.getDeliveries();
+            long skipped = broker.getDuplicatesSkipped();
+            broker.publish("Collab", crossPost);
+            broker.awaitIdle();
+            delivered = broker.getDeliveries() - delivered;
+            skipped = broker.getDuplicatesSkipped() - skipped;
+
+            long expected = 0;
+            for (int i = 0; i < subscribersCount; i++) {
+                boolean follower = false;
+                for (int channelId : broker.channelsOf(i))
+                    follower |= channelId < crossPost.length;
+                int got = inboxes[i].received - before[i];
+                if (got != (follower ? 1 : 0))
+                    throw new IllegalStateException("Subscriber " + i + " got the cross-post " + got + " times");
+                if (follower)
+                    expected++;
+            }
+            // The power user follows every 20th channel, channel 0 among them
+            if (powerUser.received - powerBefore != 1)
+                throw new IllegalStateException("Power user got the cross-post " + (powerUser.received - powerBefore) + " times");
+            if (delivered != expected + 1)
+                throw new IllegalStateException("Delivered " + delivered + ", expected " + (expected + 1));
+            System.out.printf("cross-post:  10 channels reach %,d subscribers once each, %,d duplicate paths skipped%n",
+                    delivered, skipped);
+
+            begin = System.nanoTime();
+            int[] feed = broker.channelsOf(powerId);
+            double feedMicros = (System.nanoTime() - begin) / 1e3;
+            begin = System.nanoTime();
+            for (int i = 0; i < feed.length; i += 2)
+                broker.unSubscribe(powerId, feed[i]);
+            broker.awaitIdle();
+            double unsubscribeMillis = (System.nanoTime() - begin) / 1e6;
+            int receivedBefore = powerUser.received;
+            broker.publish("After unsubscribe", feed[0]);
+            broker.awaitIdle();
+            if (powerUser.received != receivedBefore || broker.channelsOf(powerId).length != feed.length / 2)
+                throw new IllegalStateException("Unsubscribe did not reach both indexes");
+            System.out.printf("power user:  feed of %,d channels listed in %.0f us, %,d unsubscribed in %.1f ms%n",
+                    feed.length, feedMicros, (feed.length + 1) / 2, unsubscribeMillis);
+        }
+        checkBrokerShutdown();
+    }
+
+    /**
+     * Checks that an Error thrown by a subscriber is reported by awaitIdle() and close() without
+     * stopping the shard, and that close() runs what was submitted and then rejects publishes.
+     */
+    static void checkBrokerShutdown() throws InterruptedException {
+        PubSubBroker broker = new PubSubBroker(2);
+        int crashing = broker.channel("crashing");
+        broker.channel("other shard");
+        int sameShard = broker.channel("same shard");
+        broker.subscribe(broker.register(title -> {
+            throw new AssertionError("subscriber crashed");
+        }), crashing);
+        InboxSubscriber inbox = new InboxSubscriber();
+        broker.subscribe(broker.register(inbox), sameShard);
+        broker.publish("Boom", crashing);
+        broker.publish("After the crash", sameShard);
+        try {
+            broker.awaitIdle();
+            throw new IllegalStateException("Subscriber Error was not reported");
+        } catch (IllegalStateException e) {
+            if (!(e.getCause() instanceof AssertionError))
+                throw e;
+        }
+        if (inbox.received != 1)
+            throw new IllegalStateException("Shard stopped after a subscriber Error");
+        try {
+            broker.close();
+            throw new IllegalStateException("close() hid the subscriber Error");
+        } catch (IllegalStateException e) {
+            if (!(e.getCause() instanceof AssertionError))
+                throw e;
+        }
+
+        PubSubBroker clean = new PubSubBroker(2);
+        int channelId = clean.channel("news");
+        InboxSubscriber reader = new InboxSubscriber();
+        clean.subscribe(clean.register(reader), channelId);
+        for (int i = 0; i < 1_000; i++)
+            clean.publish("Story " + i, channelId);
+        clean.close();
+        if (reader.received != 1_000)
+            throw new IllegalStateException("close() dropped " + (1_000 - reader.received) + " queued publishes");
+        try {
+            clean.publish("Too late", channelId);
+            throw new IllegalStateException("Publish after close was accepted");
+        } catch (IllegalStateException expected) {
+        }
+        clean.awaitIdle();  // nothing pending, so this returns at once
+        System.out.println("broker:      subscriber Errors reported, close() drains and then rejects publishes");
+    }
+
+    /**
+     * Crash-recovery checks for NotificationLog: a torn record at the tail, a corrupt record in
+     * the middle, subscriber offsets across restarts, a failing sync, and writer processes killed
+     * with SIGKILL while appending; every record acknowledged as durable must survive.
+     */
+    static void checkLogRecovery() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("notification-log");
+        try {
+            int records = 1_000;
+            int bytes = 0;
+            try (NotificationLog log = new NotificationLog(dir, 1 << 20, 10)) {
+                for (int i = 0; i < records; i++) {
+                    log.append("Video " + i);
+                    bytes += 8 + ("Video " + i).length();
+                }
+                log.commitOffset("alice", 700);
+            }
+
+            // Torn write: a header and half of its payload made it to disk
+            Path segment = dir.resolve(String.format("%020d.log", 0));
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                ByteBuffer torn = ByteBuffer.allocate(8 + 50);
+                torn.putInt(100).putInt(12345);
+                torn.put(new byte[50]).flip();
+                Arrays.fill(torn.array(), 8, 58, (byte) 'x');
+                channel.write(torn, bytes);
+            }
+            try (NotificationLog log = new NotificationLog(dir, 1 << 20, 10)) {
+                if (log.getEndOffset() != records || log.getOffset("alice") != 700)
+                    throw new IllegalStateException("Torn tail: recovered " + log.getEndOffset() + " records");
+                if (log.append("After crash") != records)
+                    throw new IllegalStateException("Append after recovery went to the wrong offset");
+            }
+            List<String> tail = new ArrayList<>();
+            try (NotificationLog log = new NotificationLog(dir, 1 << 20, 10)) {
+                log.replay(records - 1, 10, tail::addAll);
+            }
+            if (!tail.equals(List.of("Video " + (records - 1), "After crash")))
+                throw new IllegalStateException("Unexpected tail after recovery: " + tail);
+
+            // An empty title is a record like any other, not the end marker: what follows it,
+            // in this segment and the next, must survive recovery
+            Path emptyTitles = dir.resolve("empty-titles");
+            List<String> written = new ArrayList<>();
+            int emptySegments;
+            try (NotificationLog log = new NotificationLog(emptyTitles, 1 << 10, 10)) {
+                for (int i = 0; i < 100; i++) {
+                    String title = i % 10 == 3 ? "" : "Video " + i;
+                    log.append(title);
+                    written.add(title);
+                }
+                emptySegments = log.getSegmentCount();
+            }
+            List<String> reread = new ArrayList<>();
+            try (NotificationLog log = new NotificationLog(emptyTitles, 1 << 10, 10)) {
+                log.replay(0, 100, reread::addAll);
+                if (log.getSegmentCount() != emptySegments || emptySegments < 2)
+                    throw new IllegalStateException("Empty titles: " + log.getSegmentCount() + " of " + emptySegments + " segments kept");
+            }
+            if (!reread.equals(written))
+                throw new IllegalStateException("Empty titles: recovered " + reread.size() + " of " + written.size() + " records");
+
+            // Bit flip inside record 500: the log is cut there and offsets past it are clamped
+            int position = 0;
+            for (int i = 0; i < 500; i++)
+                position += 8 + ("Video " + i).length();
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{'Z'}), position + 8);
+            }
+            try (NotificationLog log = new NotificationLog(dir, 1 << 20, 10)) {
+                if (log.getEndOffset() != 500 || log.getOffset("alice") != 500)
+                    throw new IllegalStateException("Corrupt record: recovered " + log.getEndOffset() + " records");
+            }
+
+            // A sync that fails (here saving offsets, blocked by a directory in the way of the
+            // temp file) must reach writers waiting for durability instead of leaving them blocked
+            Path failing = dir.resolve("sync-failure");
+            Files.createDirectories(failing.resolve("offsets.tmp").resolve("in-the-way"));
+            NotificationLog log = new NotificationLog(failing, 1 << 10, 10);
+            log.commitOffset("alice", 0);
+            try {
+                log.awaitDurable(log.append("Never durable"));
+                throw new IllegalStateException("Sync failure: awaitDurable returned");
+            } catch (IllegalStateException e) {
+                if (!(e.getCause() instanceof UncheckedIOException))
+                    throw e;
+            }
+            try {
+                log.close();
+                throw new IllegalStateException("Sync failure: close() succeeded");
+            } catch (IOException expected) {
+            }
+        } finally {
+            deleteTree(dir);
+        }
+
+        int kills = 3;
+        long acknowledged = 0;
+        long recovered = 0;
+        for (int round = 0; round < kills; round++) {
+            dir = Files.createTempDirectory("notification-log");
+            try {
+                Process writer = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"), LogWriterProcess.class.getName(), dir.toString())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                Map<Long, String> acked = new HashMap<>();
+                try (BufferedReader out = new BufferedReader(new InputStreamReader(writer.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while (acked.size() < 2_000 * (round + 1) && (line = out.readLine()) != null) {
+                        int space = line.indexOf(' ');
+                        acked.put(Long.parseLong(line.substring(0, space)), line.substring(space + 1));
+                    }
+                    writer.destroyForcibly();
+                    writer.waitFor();
+                }
+
+                try (NotificationLog log = new NotificationLog(dir, LogWriterProcess.SEGMENT_BYTES, 10)) {
+                    Map<Long, String> found = new HashMap<>();
+                    long end = log.replay(0, 1_000, batch -> {
+                        for (String title : batch)
+                            found.put((long) found.size(), title);
+                    });
+                    acked.forEach((offset, title) -> {
+                        if (!title.equals(found.get(offset)))
+                            throw new IllegalStateException("Acknowledged record " + offset + " lost: " + found.get(offset));
+                    });
+                    if (end != log.getEndOffset())
+                        throw new IllegalStateException("Replay stopped at " + end + " of " + log.getEndOffset());
+                    acknowledged += acked.size();
+                    recovered += end;
+                }
+            } finally {
+                deleteTree(dir);
+            }
+        }
+        System.out.println("=== Notification log crash recovery ===");
+        System.out.println("torn tail, corrupt record, empty titles, offset clamping and failed sync: ok");
+        System.out.printf("%d writers killed: %,d acknowledged records all recovered (%,d records on disk)%n",
+                kills, acknowledged, recovered);
+    }
+
+    /**
+     * Shows a subscriber catching up after a restart, then measures append throughput (buffered
+     * and durable with group commit, against one fsync per record), recovery and replay of 1M
+     * records.
+     */
+    static void printLogReport() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("notification-log");
+        try {
+            NotificationLog log = new NotificationLog(dir, 1 << 20, 10);
+            log.register("123@gmail.com");
+            YoutubeChannel channel = new YoutubeChannel("Low Level Design", null, log);
+            for (String title : new String[]{"Command Pattern", "State Pattern", "Mediator Pattern"})
+                channel.uploadVideo(title);
+            log.close();
+
+            // After a restart the offline subscriber gets what it missed as one digest
+            log = new NotificationLog(dir, 1 << 20, 10);
+            log.catchUp("123@gmail.com", new EmailSubscriber("123@gmail.com"), 100);
+            log.close();
+            if (log.getOffset("123@gmail.com") != 3)
+                throw new IllegalStateException("Offset not committed");
+        } finally {
+            deleteTree(dir);
+        }
+
+        int records = 1_000_000;
+        dir = Files.createTempDirectory("notification-log");
+        try {
+            System.out.println("=== Notification log: " + records + " uploads ===");
+            long bytes = 0;
+            double appendMillis;
+            long syncs;
+            int segments;
+            try (NotificationLog log = new NotificationLog(dir, 16 << 20, 10)) {
+                long begin = System.nanoTime();
+                for (int i = 0; i < records; i++) {
+                    String title = "Video " + i + " - Observer Pattern in depth";
+                    log.append(title);
+                    bytes += 8 + title.length();
+                }
+                appendMillis = (System.nanoTime() - begin) / 1e6;
+                syncs = log.getSyncs();
+                segments = log.getSegmentCount();
+            }
+            System.out.printf("append:        %,.0f records/s, %,.0f MB/s, %d segments, %d background syncs%n",
+                    records / (appendMillis / 1e3), bytes / 1e3 / appendMillis, segments, syncs);
+
+            long begin = System.nanoTime();
+            NotificationLog log = new NotificationLog(dir, 16 << 20, 10);
+            double recoverMillis = (System.nanoTime() - begin) / 1e6;
+            long[] checksum = new long[1];
+            begin = System.nanoTime();
+            long end = log.replay(0, 1_000, batch -> {
+                for (String title : batch)
+                    checksum[0] += title.length();
+            });
+            double replayMillis = (System.nanoTime() - begin) / 1e6;
+            log.close();
+            if (end != records || checksum[0] + 8L * records != bytes)
+                throw new IllegalStateException("Replay returned " + end + " records");
+            System.out.printf("recover+scan:  %,.0f ms; replay %,.0f records/s, %,.0f MB/s%n",
+                    recoverMillis, records / (replayMillis / 1e3), bytes / 1e3 / replayMillis);
+        } finally {
+            deleteTree(dir);
+        }
+
+        dir = Files.createTempDirectory("notification-log");
+        try {
+            int writers = 8;
+            int perWriter = 1_000;
+            NotificationLog log = new NotificationLog(dir, 16 << 20, 10);
+            ExecutorService pool = Executors.newFixedThreadPool(writers);
+            long begin = System.nanoTime();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                pool.execute(() -> {
+                    try {
+                        for (int i = 0; i < perWriter; i++)
+                            log.awaitDurable(log.append("Writer " + writer + " video " + i));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(5, TimeUnit.MINUTES);
+            double groupMillis = (System.nanoTime() - begin) / 1e6;
+            long groupSyncs = log.getSyncs();
+            log.close();
+
+            int single = 1_000;
+            Path file = dir.resolve("fsync-per-record");
+            begin = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                for (int i = 0; i < single; i++) {
+                    channel.write(StandardCharsets.UTF_8.encode("Writer 0 video " + i));
+                    channel.force(false);
+                }
+            }
+            double singleMillis = (System.nanoTime() - begin) / 1e6;
+
+            System.out.printf("durable:       group commit %,.0f records/s (%,d records in %,d fsyncs); fsync per record %,.0f records/s%n",
+                    writers * perWriter / (groupMillis / 1e3), writers * perWriter, groupSyncs, single / (singleMillis / 1e3));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+
+    private static long totalCpuNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long id : threads.getAllThreadIds())
+            total += Math.max(0, threads.getThreadCpuTime(id));
+        return total;
+    }
+}
+
+// Observer that counts its own notifications, for delivery checks.
+// Only read after the broker is idle; a plain int is enough since each upload reaches it once.
+class InboxSubscriber implements Subscriber {
+
+    int received;
+
+    public void update(String title) {
+        received++;
+    }
+}
+
+// Observer that only counts notifications, for benchmarks
+class CountingSubscriber implements Subscriber {
+
+    static final LongAdder TOTAL = new LongAdder();
+
+    public void update(String title) {
+        TOTAL.increment();
+    }
+}
+
+// Observer whose every message has a fixed cost (rendering, handing to a mail server),
+// plus a small cost per listed video
+class MailerSubscriber implements Subscriber {
+
+    static final LongAdder MESSAGES = new LongAdder();
+
+    private int checksum;
+
+    public void update(String title) {
+        send(List.of(title));
     }
-}
\ No newline at end of file
+
+    public void update(List<String> titles) {
+        send(titles);
+    }
+
+    private void send(List<String> titles) {
+        int hash = 17;
+        for (int i = 0; i < 2_000; i++)  // per-message overhead
+            hash = hash * 31 + i;
+        for (String title : titles)
+            hash = hash * 31 + title.hashCode();
+        checksum += hash;
+        MESSAGES.increment();
+    }
+}
+
+// Fast observer for benchmarks; fails if notifications arrive out of order
+class OrderCheckingSubscriber implements Subscriber {
+
+    int last = -1;
+
+    public void update(String title) {
+        int number = Integer.parseInt(title, 6, title.length(), 10);  // "Video n"
+        if (number <= last)
+            throw new IllegalStateException("Got " + title + " after Video " + last);
+        last = number;
+    }
+}
+
+// Observer that takes a while per notification, like sending a real email
+class SlowSubscriber implements Subscriber {
+
+    private long millis;
+
+    public SlowSubscriber(long millis) {
+        this.millis = millis;
+    }
+
+    public void update(String title) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// Writes to a NotificationLog until killed, printing "offset title" once a record is durable.
+// Started as a separate process by checkLogRecovery.
+class LogWriterProcess {
+
+    static final int SEGMENT_BYTES = 64 << 10;
+
+    public static void main(String[] args) throws IOException {
+        NotificationLog log = new NotificationLog(Path.of(args[0]), SEGMENT_BYTES, 5);
+        for (int w = 0; w < 4; w++) {
+            int writer = w;
+            new Thread(() -> {
+                try {
+                    for (int i = 0; ; i++) {
+                        String title = "Writer " + writer + " video " + i;
+                        long offset = log.append(title);
+                        log.awaitDurable(offset);
+                        synchronized (System.out) {
+                            System.out.println(offset + " " + title);
+                            System.out.flush();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }).start();
+        }
+    }
+}
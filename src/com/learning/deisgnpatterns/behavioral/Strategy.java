@@ -1,5 +1,7 @@
 package com.learning.deisgnpatterns.behavioral;
 
+import com.learning.deisgnpatterns.Money;
+
 /**
  * STRATEGY DESIGN PATTERN - JAVA IMPLEMENTATION
  *
@@ -10,30 +12,32 @@ package com.learning.deisgnpatterns.behavioral;
  * Real-World Analogy:
  * A user can choose to pay via UPI, PayPal, or Credit Card.
  * The algorithm to process payment changes, but the interface remains the same.
+ *
+ * Amounts are Money values (see com.learning.deisgnpatterns.Money).
  */
 
 // Strategy interface: declares the pay method
 interface PaymentStrategy {
-    void pay(double amount);
+    void pay(Money amount);
 }
 
 // Concrete strategy: UPI payment implementation
 class UpiPayment implements PaymentStrategy {
-    public void pay(double amount) {
+    public void pay(Money amount) {
         System.out.println("UPI payment made: " + amount);
     }
 }
 
 // Concrete strategy: PayPal payment implementation
 class PayPalPayment implements PaymentStrategy {
-    public void pay(double amount) {
+    public void pay(Money amount) {
         System.out.println("PayPal payment made: " + amount);
     }
 }
 
 // Concrete strategy: Credit card payment implementation
 class CreditCardPayment implements PaymentStrategy {
-    public void pay(double amount) {
+    public void pay(Money amount) {
         System.out.println("Credit card payment made: " + amount);
     }
 }
@@ -50,7 +54,7 @@ class PaymentService {
     /**
      * Executes the selected strategy to process payment
      */
-    public void checkout(double amount) {
+    public void checkout(Money amount) {
         paymentStrategy.pay(amount);
     }
 
@@ -69,14 +73,14 @@ public class Strategy {
 
         // Create service using UPI strategy
         PaymentService paymentService = new PaymentService(new UpiPayment());
-        paymentService.checkout(100);  // UPI payment
+        paymentService.checkout(Money.inr(100));  // UPI payment
 
         // Change strategy to PayPal dynamically
         paymentService.setPaymentStrategy(new PayPalPayment());
-        paymentService.checkout(200);  // PayPal payment
+        paymentService.checkout(Money.inr(200));  // PayPal payment
 
         // Change strategy to Credit Card dynamically
         paymentService.setPaymentStrategy(new CreditCardPayment());
-        paymentService.checkout(300);  // Credit card payment
+        paymentService.checkout(Money.inr(300));  // Credit card payment
     }
 }
@@ -1,5 +1,10 @@
 package com.learning.deisgnpatterns.structural;
 
+import com.learning.deisgnpatterns.Money;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
 /**
  * ADAPTER DESIGN PATTERN - JAVA IMPLEMENTATION
  *
@@ -11,24 +16,112 @@ package com.learning.deisgnpatterns.structural;
  * Using a power plug adapter to connect a U.S. charger (110V) to an Indian socket (220V).
  * In this example, Razorpay's API doesn't match the expected payment interface.
  * So, we use an adapter to make it compatible.
+ *
+ * Amounts are Money values (see com.learning.deisgnpatterns.Money).
  */
 
+// One order to be paid
+class PaymentRequest {
+    final String orderId;
+    final Money amount;
+
+    public PaymentRequest(String orderId, Money amount) {
+        this.orderId = orderId;
+        this.amount = amount;
+    }
+}
+
+// Outcome of paying one order
+class PaymentResult {
+    final String orderId;
+    final boolean success;
+    final String error;  // null on success
+
+    private PaymentResult(String orderId, boolean success, String error) {
+        this.orderId = orderId;
+        this.success = success;
+        this.error = error;
+    }
+
+    public static PaymentResult paid(String orderId) {
+        return new PaymentResult(orderId, true, null);
+    }
+
+    public static PaymentResult failed(String orderId, String error) {
+        return new PaymentResult(orderId, false, error);
+    }
+
+    @Override
+    public String toString() {
+        return success ? orderId + ": paid" : orderId + ": failed (" + error + ")";
+    }
+}
+
 // Target Interface (the client expects this format)
 interface PaymentGateway {
-    void pay(String orderId, double amount);
+    void pay(String orderId, Money amount);
+
+    /**
+     * Pays several orders in one call and returns one result per request, in order.
+     * Gateways without a bulk API fall back to one pay() per order.
+     */
+    default List<PaymentResult> payBatch(List<PaymentRequest> batch) {
+        List<PaymentResult> results = new ArrayList<>(batch.size());
+        for (PaymentRequest request : batch) {
+            try {
+                pay(request.orderId, request.amount);
+                results.add(PaymentResult.paid(request.orderId));
+            } catch (RuntimeException e) {
+                results.add(PaymentResult.failed(request.orderId, e.getMessage()));
+            }
+        }
+        return results;
+    }
 }
 
 // Concrete implementation of the PaymentGateway (already compatible)
 class PayUGateway implements PaymentGateway {
-    public void pay(String orderId, double amount) {
-        System.out.println("PayU Gateway: ₹" + amount + " has been deducted for order " + orderId);
+    public void pay(String orderId, Money amount) {
+        System.out.println("PayU Gateway: " + amount + " has been deducted for order " + orderId);
+    }
+
+    /**
+     * Settles the whole batch in one PayU round trip.
+     */
+    public List<PaymentResult> payBatch(List<PaymentRequest> batch) {
+        Money total = Money.ZERO;
+        List<PaymentResult> results = new ArrayList<>(batch.size());
+        for (PaymentRequest request : batch) {
+            total = total.plus(request.amount);
+            results.add(PaymentResult.paid(request.orderId));
+        }
+        System.out.println("PayU Gateway: " + total + " has been deducted for " + batch.size() + " orders");
+        return results;
     }
 }
 
-// Adaptee - incompatible third-party API (e.g., Razorpay)
+// Adaptee - incompatible third-party API (e.g., Razorpay), which takes plain paise
 class RazorpayAPI {
-    public void makePayment(String orderId, double amount) {
-        System.out.println("Razorpay API: ₹" + amount + " has been deducted for order " + orderId);
+    public void makePayment(String orderId, long amountInPaise) {
+        System.out.println("Razorpay API: " + rupees(amountInPaise) + " has been deducted for order " + orderId);
+    }
+
+    /**
+     * Bulk endpoint: parallel arrays in, one status flag per order out.
+     */
+    public boolean[] makeBulkPayment(String[] orderIds, long[] amountsInPaise) {
+        long total = 0;
+        for (long amount : amountsInPaise)
+            total += amount;
+        System.out.println("Razorpay API: " + rupees(total) + " has been deducted for " + orderIds.length + " orders");
+
+        boolean[] status = new boolean[orderIds.length];
+        Arrays.fill(status, true);
+        return status;
+    }
+
+    private static String rupees(long paise) {
+        return String.format("%s₹%d.%02d", paise < 0 ? "-" : "", Math.abs(paise / 100), Math.abs(paise % 100));
     }
 }
 
@@ -44,8 +137,163 @@ class RazorPayAdapter implements PaymentGateway {
     /**
      * Adapts Razorpay's makePayment() to match the pay() method expected by the client.
      */
-    public void pay(String orderId, double amount) {
-        razorpay.makePayment(orderId, amount);
+    public void pay(String orderId, Money amount) {
+        razorpay.makePayment(orderId, toPaise(amount));
+    }
+
+    /**
+     * Adapts a batch to Razorpay's parallel-array bulk API.
+     */
+    public List<PaymentResult> payBatch(List<PaymentRequest> batch) {
+        String[] orderIds = new String[batch.size()];
+        long[] amounts = new long[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            orderIds[i] = batch.get(i).orderId;
+            amounts[i] = toPaise(batch.get(i).amount);
+        }
+
+        boolean[] status = razorpay.makeBulkPayment(orderIds, amounts);
+        List<PaymentResult> results = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++)
+            results.add(status[i] ? PaymentResult.paid(orderIds[i]) : PaymentResult.failed(orderIds[i], "declined by Razorpay"));
+        return results;
+    }
+
+    /**
+     * Razorpay only settles rupees, given in paise.
+     */
+    private static long toPaise(Money amount) {
+        if (amount.currency() != Money.Currency.INR && !amount.equals(Money.ZERO))
+            throw new IllegalArgumentException("Razorpay only accepts INR, got " + amount.currency());
+        return amount.minorUnits();
+    }
+}
+
+// Local stand-in for a remote gateway: every call (single or batch) costs one round trip
+class SimulatedGateway extends SimulatedRemote implements PaymentGateway {
+
+    public SimulatedGateway(long roundTripMillis) {
+        super("Gateway", roundTripMillis);
+    }
+
+    public void pay(String orderId, Money amount) {
+        roundTrip();
+    }
+
+    public List<PaymentResult> payBatch(List<PaymentRequest> batch) {
+        roundTrip();
+        List<PaymentResult> results = new ArrayList<>(batch.size());
+        for (PaymentRequest request : batch)
+            results.add(PaymentResult.paid(request.orderId));
+        return results;
+    }
+}
+
+// Coalesces single payments into batches and keeps several batches in flight.
+// A batch is sent when it reaches maxBatchSize or when its oldest order has waited maxDelayMillis.
+class PaymentBatcher implements AutoCloseable {
+
+    private PaymentGateway gateway;
+    private int maxBatchSize;
+    private long maxDelayMillis;
+
+    private ExecutorService senders;           // one thread per batch in flight
+    private ScheduledExecutorService timer;    // flushes batches that wait too long
+
+    private List<PaymentRequest> pending = new ArrayList<>();
+    private List<CompletableFuture<PaymentResult>> waiting = new ArrayList<>();
+    private long generation;                   // lets a stale timer skip a batch already sent
+    private boolean closed;                    // guarded by this
+
+    public PaymentBatcher(PaymentGateway gateway, int maxBatchSize, long maxDelayMillis, int maxInFlight) {
+        if (maxBatchSize <= 0 || maxDelayMillis < 0 || maxInFlight <= 0)
+            throw new IllegalArgumentException("Invalid batching settings");
+        this.gateway = gateway;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.senders = Executors.newFixedThreadPool(maxInFlight);
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Queues one order for payment; the future completes once its batch has been settled.
+     * After close() the order is rejected with a failed result.
+     */
+    public CompletableFuture<PaymentResult> submit(String orderId, Money amount) {
+        CompletableFuture<PaymentResult> result = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                result.complete(PaymentResult.failed(orderId, "batcher is closed"));
+                return result;
+            }
+            pending.add(new PaymentRequest(orderId, amount));
+            waiting.add(result);
+
+            if (pending.size() >= maxBatchSize) {
+                flush();
+            } else if (pending.size() == 1) {
+                long scheduled = generation;
+                timer.schedule(() -> flushIfStill(scheduled), maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends whatever is pending right away.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty())
+            return;
+
+        List<PaymentRequest> batch = pending;
+        List<CompletableFuture<PaymentResult>> futures = waiting;
+        pending = new ArrayList<>();
+        waiting = new ArrayList<>();
+        generation++;
+
+        senders.execute(() -> send(batch, futures));
+    }
+
+    /**
+     * Stops accepting orders, sends the pending ones and waits for every batch in flight to finish.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            flush();
+        }
+        timer.shutdownNow();
+        senders.shutdown();
+        try {
+            senders.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void flushIfStill(long scheduled) {
+        if (generation == scheduled)
+            flush();
+    }
+
+    private void send(List<PaymentRequest> batch, List<CompletableFuture<PaymentResult>> futures) {
+        Throwable error = null;
+        try {
+            List<PaymentResult> results = gateway.payBatch(batch);
+            for (int i = 0; i < futures.size(); i++)
+                futures.get(i).complete(results.get(i));
+        } catch (RuntimeException e) {
+            for (int i = 0; i < futures.size(); i++)
+                futures.get(i).complete(PaymentResult.failed(batch.get(i).orderId, e.getMessage()));
+        } catch (Error e) {
+            // Handed to every caller through its future rather than lost on the sender thread
+            error = e;
+        } finally {
+            // No caller may wait forever, whatever ended the batch
+            for (CompletableFuture<PaymentResult> future : futures)
+                future.completeExceptionally(error != null ? error : new IllegalStateException("Batch ended without a result"));
+        }
     }
 }
 
@@ -65,24 +313,596 @@ class CheckoutService {
     /**
      * Triggers the payment through the provided gateway.
      */
-    void checkOut(String orderId, double amount) {
+    void checkOut(String orderId, Money amount) {
         gateway.pay(orderId, amount);
     }
 }
 
+// Asynchronous client: every payment runs on its own thread (virtual where the JDK has them), so a
+// slow gateway parks cheap virtual threads instead of platform threads and tens of thousands of
+// payments can be in flight.
+class AsyncCheckoutService implements AutoCloseable {
+
+    private PaymentGateway gateway;
+    private long timeoutMillis;
+    private Semaphore gatewayCalls;   // caps concurrent calls into the gateway
+    private Semaphore admitted;       // caps accepted but unfinished payments (back-pressure on callers)
+
+    private ExecutorService executor = RemoteCalls.newThreadPerTaskExecutor("checkout-call");
+
+    /**
+     * @param gateway        gateway all payments go to
+     * @param maxConcurrent  gateway calls allowed at the same time
+     * @param maxPending     payments accepted but not finished before checkOut() starts blocking
+     * @param timeoutMillis  time after which a payment is reported as failed and its call interrupted
+     */
+    public AsyncCheckoutService(PaymentGateway gateway, int maxConcurrent, int maxPending, long timeoutMillis) {
+        if (maxConcurrent <= 0 || maxPending < maxConcurrent || timeoutMillis <= 0)
+            throw new IllegalArgumentException("Invalid checkout limits");
+        this.gateway = gateway;
+        this.timeoutMillis = timeoutMillis;
+        this.gatewayCalls = new Semaphore(maxConcurrent);
+        this.admitted = new Semaphore(maxPending);
+    }
+
+    /**
+     * Starts the payment and returns right away, unless maxPending payments are already
+     * outstanding, in which case the caller waits for one of them to finish.
+     * A timed-out payment may still reach the gateway, so callers should reconcile it later.
+     */
+    public CompletableFuture<PaymentResult> checkOut(String orderId, Money amount) throws InterruptedException {
+        admitted.acquire();
+        CompletableFuture<PaymentResult> result = new CompletableFuture<>();
+        result.whenComplete((r, e) -> admitted.release());
+
+        Future<?> call;
+        try {
+            call = executor.submit(() -> pay(orderId, amount, result));
+        } catch (RejectedExecutionException e) {
+            result.complete(PaymentResult.failed(orderId, "checkout service is closed"));
+            return result;
+        }
+
+        RemoteCalls.timeout(result, call, timeoutMillis,
+                () -> PaymentResult.failed(orderId, "timed out after " + timeoutMillis + " ms"), () -> { });
+        return result;
+    }
+
+    /**
+     * Stops accepting new payments, then waits for the ones in flight to finish.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void pay(String orderId, Money amount, CompletableFuture<PaymentResult> result) {
+        try {
+            gatewayCalls.acquire();
+        } catch (InterruptedException e) {
+            result.complete(PaymentResult.failed(orderId, "interrupted while waiting for the gateway"));
+            return;
+        }
+
+        try {
+            gateway.pay(orderId, amount);
+            result.complete(PaymentResult.paid(orderId));
+        } catch (RuntimeException e) {
+            result.complete(PaymentResult.failed(orderId, e.getMessage()));
+        } finally {
+            gatewayCalls.release();
+        }
+    }
+}
+
+// Latency and error tracking plus a circuit breaker for one backend behind RoutingGateway.
+// Stats cover the last WINDOW calls; the circuit opens when too many of them failed.
+class BackendHealth {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // What tryAcquire() handed out; only the TRIAL call may close or reopen a half-open circuit
+    enum Permit { DENIED, CALL, TRIAL }
+
+    private static final int WINDOW = 128;
+    static final int MIN_CALLS = 10;
+
+    private double maxErrorRate;
+    private long openNanos;
+
+    private long[] latencies = new long[WINDOW];
+    private boolean[] failures = new boolean[WINDOW];
+    private int count;
+    private int next;
+    private int failureCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public BackendHealth(double maxErrorRate, long openMillis) {
+        this.maxErrorRate = maxErrorRate;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Checks whether a call may be sent now without reserving it.
+     */
+    public synchronized boolean isAvailable() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            return System.nanoTime() - openedAt >= openNanos;
+        default:
+            return !trialInFlight;
+        }
+    }
+
+    /**
+     * Reserves a call. Once the open period is over, a single trial call is let through
+     * (half-open); its outcome closes or reopens the circuit.
+     */
+    public synchronized Permit tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.CLOSED)
+            return Permit.CALL;
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return Permit.TRIAL;
+        }
+        return Permit.DENIED;
+    }
+
+    /**
+     * Gives back a call reserved with tryAcquire() that was never sent, so a half-open
+     * circuit can let another trial through.
+     */
+    public synchronized void release(Permit permit) {
+        if (permit == Permit.TRIAL && state == State.HALF_OPEN)
+            trialInFlight = false;
+    }
+
+    /**
+     * Records the outcome of a call reserved with tryAcquire(). A call that started before the
+     * circuit opened still feeds the stats, but only the trial decides a half-open circuit.
+     */
+    public synchronized void record(Permit permit, long nanos, boolean success) {
+        if (count == WINDOW && failures[next])
+            failureCount--;
+        latencies[next] = nanos;
+        failures[next] = !success;
+        if (!success)
+            failureCount++;
+        next = (next + 1) % WINDOW;
+        count = Math.min(WINDOW, count + 1);
+
+        if (state == State.HALF_OPEN) {
+            if (permit != Permit.TRIAL)
+                return;
+            trialInFlight = false;
+            if (success) {
+                state = State.CLOSED;
+                count = 0;
+                next = 0;
+                failureCount = 0;
+            } else {
+                open();
+            }
+        } else if (state == State.CLOSED && count >= MIN_CALLS && (double) failureCount / count > maxErrorRate) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getCalls() {
+        return count;
+    }
+
+    /**
+     * Latency percentile (0..1) of the recent calls in nanoseconds, 0 if nothing was recorded yet.
+     */
+    public synchronized long percentile(double p) {
+        if (count == 0)
+            return 0;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(count - 1, Math.floor(p * count))];
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+}
+
+// Gateway that spreads payments over several backends: it picks the fastest healthy one,
+// fails over when a call fails, skips backends whose circuit is open, and can hedge a slow call
+// to the next backend once it has taken longer than the primary's usual latency.
+// Hedging sends the same order twice, so it is only safe with gateways that dedupe by orderId.
+class RoutingGateway implements PaymentGateway {
+
+    private static class Backend {
+        final String name;
+        final PaymentGateway gateway;
+        final BackendHealth health;
+
+        Backend(String name, PaymentGateway gateway, BackendHealth health) {
+            this.name = name;
+            this.gateway = gateway;
+            this.health = health;
+        }
+    }
+
+    // Every EXPLORE_EVERY-th payment goes to a random available backend so the stats of
+    // backends that are not currently the fastest stay fresh
+    private static final int EXPLORE_EVERY = 16;
+
+    private List<Backend> backends = new CopyOnWriteArrayList<>();
+    private AtomicLong payments = new AtomicLong();
+    private double maxErrorRate;
+    private long openMillis;
+    private double hedgePercentile;   // 0 disables hedging
+    private ExecutorService executor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "payment-router");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param maxErrorRate     share of recent failed calls that opens a backend's circuit
+     * @param openMillis       how long an open circuit rejects calls before a trial call
+     * @param hedgePercentile  latency percentile of the primary after which the call is hedged, 0 to disable
+     */
+    public RoutingGateway(double maxErrorRate, long openMillis, double hedgePercentile) {
+        this.maxErrorRate = maxErrorRate;
+        this.openMillis = openMillis;
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public RoutingGateway addBackend(String name, PaymentGateway gateway) {
+        backends.add(new Backend(name, gateway, new BackendHealth(maxErrorRate, openMillis)));
+        return this;
+    }
+
+    /**
+     * Returns the circuit state of the named backend.
+     */
+    public BackendHealth getHealth(String name) {
+        for (Backend backend : backends)
+            if (backend.name.equals(name))
+                return backend.health;
+        throw new IllegalArgumentException("Unknown backend: " + name);
+    }
+
+    public void pay(String orderId, Money amount) {
+        List<Backend> ranked = rank();
+        Set<Backend> tried = new HashSet<>();
+        RuntimeException last = null;
+
+        for (int i = 0; i < ranked.size(); i++) {
+            Backend primary = ranked.get(i);
+            if (tried.contains(primary))
+                continue;
+            BackendHealth.Permit permit = primary.health.tryAcquire();
+            if (permit == BackendHealth.Permit.DENIED)
+                continue;
+            tried.add(primary);
+
+            Backend hedge = null;
+            if (hedgePercentile > 0 && primary.health.getCalls() >= BackendHealth.MIN_CALLS) {
+                for (int j = i + 1; j < ranked.size() && hedge == null; j++)
+                    if (ranked.get(j).health.isAvailable())
+                        hedge = ranked.get(j);
+            }
+
+            try {
+                if (hedge == null)
+                    call(primary, permit, orderId, amount);
+                else
+                    callHedged(primary, permit, hedge, tried, orderId, amount);
+                return;
+            } catch (RuntimeException e) {
+                last = e;
+            }
+        }
+        throw new IllegalStateException("No gateway could pay order " + orderId, last);
+    }
+
+    /**
+     * Available backends first, then backends with too few calls to judge, then fastest median latency.
+     */
+    private List<Backend> rank() {
+        List<Backend> ranked = new ArrayList<>(backends);
+        Map<Backend, Boolean> available = new HashMap<>();
+        Map<Backend, Long> median = new HashMap<>();
+        for (Backend backend : ranked) {
+            available.put(backend, backend.health.isAvailable());
+            median.put(backend, backend.health.getCalls() < BackendHealth.MIN_CALLS ? -1 : backend.health.percentile(0.5));
+        }
+        ranked.sort(Comparator.comparing((Backend b) -> !available.get(b)).thenComparing(median::get));
+
+        int usable = (int) ranked.stream().filter(available::get).count();
+        if (usable > 1 && payments.incrementAndGet() % EXPLORE_EVERY == 0)
+            ranked.add(0, ranked.remove(ThreadLocalRandom.current().nextInt(usable)));
+        return ranked;
+    }
+
+    private void call(Backend backend, BackendHealth.Permit permit, String orderId, Money amount) {
+        long begin = System.nanoTime();
+        try {
+            backend.gateway.pay(orderId, amount);
+            backend.health.record(permit, System.nanoTime() - begin, true);
+        } catch (RuntimeException e) {
+            backend.health.record(permit, System.nanoTime() - begin, false);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the primary call and, if it has not finished within the hedge delay, the hedge as well.
+     * The first success wins; the slower call finishes in the background and still feeds the stats.
+     */
+    private void callHedged(Backend primary, BackendHealth.Permit permit, Backend hedge, Set<Backend> tried,
+            String orderId, Money amount) {
+        CompletableFuture<Void> winner = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger started = new AtomicInteger(1);
+
+        Runnable primaryCall = () -> attempt(primary, permit, orderId, amount, winner, failed, started);
+        executor.execute(primaryCall);
+
+        long delay = primary.health.percentile(hedgePercentile);
+        try {
+            winner.get(delay, TimeUnit.NANOSECONDS);
+            return;
+        } catch (TimeoutException e) {
+            BackendHealth.Permit hedgePermit = hedge.health.tryAcquire();
+            if (hedgePermit != BackendHealth.Permit.DENIED) {
+                started.incrementAndGet();
+                // The primary may have failed meanwhile and already counted against a single start
+                if (!winner.isDone()) {
+                    tried.add(hedge);
+                    executor.execute(() -> attempt(hedge, hedgePermit, orderId, amount, winner, failed, started));
+                } else {
+                    started.decrementAndGet();
+                    hedge.health.release(hedgePermit);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while paying", e);
+        } catch (ExecutionException e) {
+            throw unchecked(e.getCause());
+        }
+
+        try {
+            winner.join();
+        } catch (CompletionException e) {
+            throw unchecked(e.getCause());
+        }
+    }
+
+    /**
+     * Returns a runtime exception to rethrow for a call's failure: the failure itself when it is
+     * unchecked, otherwise wrapped. Errors are thrown as they are.
+     */
+    private static RuntimeException unchecked(Throwable cause) {
+        if (cause instanceof Error)
+            throw (Error) cause;
+        if (cause instanceof RuntimeException)
+            return (RuntimeException) cause;
+        return new IllegalStateException("Payment failed", cause);
+    }
+
+    private void attempt(Backend backend, BackendHealth.Permit permit, String orderId, Money amount,
+            CompletableFuture<Void> winner, AtomicInteger failed, AtomicInteger started) {
+        try {
+            call(backend, permit, orderId, amount);
+            winner.complete(null);
+        } catch (RuntimeException | Error e) {
+            if (failed.incrementAndGet() >= started.get())
+                winner.completeExceptionally(e);
+        }
+    }
+}
+
 // Main class demonstrating the Adapter Pattern
 public class Adapter {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         // Use PayU Gateway (already compatible)
         CheckoutService payUCheckout = new CheckoutService(new PayUGateway());
-        payUCheckout.checkOut("ORD123", 100);
+        payUCheckout.checkOut("ORD123", Money.inr(100));
 
         System.out.println();
 
         // Use Razorpay Gateway (adapted via adapter)
         CheckoutService razorpayCheckout = new CheckoutService(new RazorPayAdapter());
-        razorpayCheckout.checkOut("ORD124", 150);
+        razorpayCheckout.checkOut("ORD124", Money.inr(150));
+        razorpayCheckout.checkOut("ORD124-REFUND", Money.of(-150, Money.Currency.INR));  // prints -₹1.50
+
+        System.out.println();
+
+        // End-of-day settlement: both gateways take the whole batch in one call
+        List<PaymentRequest> settlement = List.of(new PaymentRequest("ORD125", Money.inr(200)),
+                new PaymentRequest("ORD126", Money.inr(250)));
+        System.out.println(new PayUGateway().payBatch(settlement));
+        System.out.println(new RazorPayAdapter().payBatch(settlement));
+
+        System.out.println();
+        printBatchingReport();
+
+        System.out.println();
+        printAsyncCheckoutReport();
+
+        System.out.println();
+        printRoutingReport();
+    }
+
+    /**
+     * Failover: the fast backend starts failing and we measure how long until its circuit opens.
+     * Tail latency: both backends have a 5% slow tail; p99 with and without hedging.
+     */
+    static void printRoutingReport() throws InterruptedException {
+        // A hedge reserved but never sent must hand its half-open trial back
+        BackendHealth trial = new BackendHealth(0.5, 0);
+        BackendHealth.Permit early = trial.tryAcquire();
+        for (int i = 0; i < BackendHealth.MIN_CALLS; i++)
+            trial.record(trial.tryAcquire(), 1, false);
+        BackendHealth.Permit permit = trial.tryAcquire();
+        if (permit != BackendHealth.Permit.TRIAL || trial.tryAcquire() != BackendHealth.Permit.DENIED)
+            throw new IllegalStateException("Expected exactly one half-open trial");
+        trial.release(permit);
+        permit = trial.tryAcquire();
+        if (permit != BackendHealth.Permit.TRIAL)
+            throw new IllegalStateException("Released trial was not given back");
+
+        // A call sent before the circuit opened that finishes late must not decide the trial
+        trial.record(early, 1, true);
+        if (trial.getState() != BackendHealth.State.HALF_OPEN)
+            throw new IllegalStateException("A late call resolved the half-open circuit");
+        trial.record(permit, 1, true);
+        if (trial.getState() != BackendHealth.State.CLOSED)
+            throw new IllegalStateException("The trial did not close the circuit");
+
+        SimulatedGateway fast = new SimulatedGateway(1);
+        SimulatedGateway slow = new SimulatedGateway(3);
+        RoutingGateway router = new RoutingGateway(0.5, 200, 0).addBackend("fast", fast).addBackend("slow", slow);
+        for (int i = 0; i < 50; i++)
+            router.pay("WARM" + i, Money.inr(10));
+
+        fast.setFailing(true);
+        int callsBefore = fast.getCalls();
+        long begin = System.nanoTime();
+        int orders = 0;
+        while (router.getHealth("fast").getState() != BackendHealth.State.OPEN && orders < 10_000)
+            router.pay("FAIL" + orders++, Money.inr(10));
+        double failoverMillis = (System.nanoTime() - begin) / 1e6;
+
+        System.out.println("=== Routing gateway ===");
+        System.out.printf("failover: circuit opened after %.1f ms, %d failed calls, %d orders all paid via backup%n",
+                failoverMillis, fast.getCalls() - callsBefore, orders);
+
+        fast.setFailing(false);
+        Thread.sleep(250);
+        router.pay("RECOVER", Money.inr(10));
+        System.out.println("after open period: fast backend is " + router.getHealth("fast").getState());
+
+        for (double hedgePercentile : new double[] { 0, 0.9 }) {
+            SimulatedGateway a = new SimulatedGateway(2);
+            SimulatedGateway b = new SimulatedGateway(2);
+            a.setTail(0.05, 50);
+            b.setTail(0.05, 50);
+            RoutingGateway hedged = new RoutingGateway(0.5, 200, hedgePercentile).addBackend("a", a).addBackend("b", b);
+
+            for (int i = 0; i < 100; i++)
+                hedged.pay("WARM" + i, Money.inr(10));
+
+            int calls = 400;
+            long[] latencies = new long[calls];
+            for (int i = 0; i < calls; i++) {
+                long start = System.nanoTime();
+                hedged.pay("TAIL" + i, Money.inr(10));
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            System.out.printf("hedging %-4s p50: %5.1f ms, p99: %5.1f ms%n", hedgePercentile == 0 ? "off" : "p90",
+                    latencies[calls / 2] / 1e6, latencies[calls * 99 / 100] / 1e6);
+        }
+    }
+
+    /**
+     * Pushes 20,000 payments through AsyncCheckoutService against a gateway with a 20 ms round
+     * trip and prints throughput and p50/p99 latency measured from checkOut() to completion.
+     */
+    static void printAsyncCheckoutReport() throws InterruptedException {
+        int orders = 20_000;
+        long[] latencies = new long[orders];
+        List<CompletableFuture<PaymentResult>> results = new ArrayList<>(orders);
+
+        long begin = System.nanoTime();
+        try (AsyncCheckoutService checkout = new AsyncCheckoutService(new SimulatedGateway(20), 5_000, 10_000, 1_000)) {
+            for (int i = 0; i < orders; i++) {
+                int order = i;
+                long submitted = System.nanoTime();
+                results.add(checkout.checkOut("ORD" + i, Money.inr(10))
+                        .whenComplete((r, e) -> latencies[order] = System.nanoTime() - submitted));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        long paid = results.stream().filter(r -> r.join().success).count();
+        Arrays.sort(latencies);
+        System.out.println("=== Async checkout, " + orders + " orders, 20 ms gateway, 5,000 concurrent ===");
+        System.out.printf("throughput: %,.0f orders/sec, paid: %d%n", orders / seconds, paid);
+        System.out.printf("p50: %.1f ms, p99: %.1f ms%n", latencies[orders / 2] / 1e6, latencies[orders * 99 / 100] / 1e6);
+    }
+
+    /**
+     * Checks that a PaymentBatcher rejects orders after close() and that an Error thrown by the
+     * gateway fails the waiting futures instead of leaving them pending.
+     */
+    static void checkBatcherFailures() {
+        PaymentGateway broken = new PaymentGateway() {
+            public void pay(String orderId, Money amount) {
+                throw new AssertionError("gateway crashed");
+            }
+
+            public List<PaymentResult> payBatch(List<PaymentRequest> batch) {
+                throw new AssertionError("gateway crashed");
+            }
+        };
+        CompletableFuture<PaymentResult> crashed;
+        PaymentBatcher batcher = new PaymentBatcher(broken, 10, 1, 1);
+        crashed = batcher.submit("ORD-X", Money.inr(10));
+        batcher.close();
+        if (!crashed.isCompletedExceptionally())
+            throw new IllegalStateException("Batch lost to an Error was left pending");
+        if (batcher.submit("ORD-Y", Money.inr(10)).join().success)
+            throw new IllegalStateException("Closed batcher accepted an order");
+    }
+
+    /**
+     * Pays the same orders one at a time and through a PaymentBatcher against a gateway with
+     * a fixed round trip, and prints orders/sec for both.
+     */
+    static void printBatchingReport() throws InterruptedException {
+        int orders = 500;
+        long roundTripMillis = 2;
+
+        SimulatedGateway single = new SimulatedGateway(roundTripMillis);
+        CheckoutService checkout = new CheckoutService(single);
+        long begin = System.nanoTime();
+        for (int i = 0; i < orders; i++)
+            checkout.checkOut("ORD" + i, Money.inr(10));
+        double singleRate = orders / ((System.nanoTime() - begin) / 1e9);
+
+        SimulatedGateway batched = new SimulatedGateway(roundTripMillis);
+        List<CompletableFuture<PaymentResult>> results = new ArrayList<>();
+        begin = System.nanoTime();
+        try (PaymentBatcher batcher = new PaymentBatcher(batched, 50, 5, 4)) {
+            for (int i = 0; i < orders; i++)
+                results.add(batcher.submit("ORD" + i, Money.inr(10)));
+        }
+        double batchedRate = orders / ((System.nanoTime() - begin) / 1e9);
+
+        long paid = results.stream().filter(r -> r.join().success).count();
+        checkBatcherFailures();
+        System.out.println("=== Settlement of " + orders + " orders, " + roundTripMillis + " ms round trip ===");
+        System.out.printf("one at a time: %,10.0f orders/sec (%d calls)%n", singleRate, single.getCalls());
+        System.out.printf("batched:       %,10.0f orders/sec (%d calls, %d paid)%n", batchedRate, batched.getCalls(), paid);
     }
 }
 
@@ -1,4 +1,6 @@
 package com.learning.deisgnpatterns.structural;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * BRIDGE DESIGN PATTERN - JAVA IMPLEMENTATION
@@ -9,6 +11,10 @@ package com.learning.deisgnpatterns.structural;
  * Real-World Analogy:
  * A remote control (abstraction) can operate different devices (TV, Radio, etc.).
  * The remote doesn't care what device it's connected to — it just calls enable/disable.
+ *
+ * GroupRemote is a second refined abstraction: given a DeviceGroup, it sends one command to the
+ * whole fleet concurrently, with a cap on calls in flight and a timeout per device, where
+ * UltimateRemote on the same group reaches the devices one by one.
  */
 
 // Implementor Interface
@@ -39,6 +45,54 @@ class Radio implements Device {
     }
 }
 
+// Concrete Implementor - device behind a network hop, for fleet benchmarks
+class SimulatedDevice extends SimulatedRemote implements Device {
+
+    private volatile boolean on;
+
+    public SimulatedDevice(String name, long latencyMillis) {
+        super(name, latencyMillis);
+    }
+
+    public void enable() {
+        roundTrip();
+        on = true;
+    }
+
+    public void disable() {
+        roundTrip();
+        on = false;
+    }
+
+    public boolean isOn() {
+        return on;
+    }
+}
+
+// Concrete Implementor - a fleet of devices driven as one; enable()/disable() reach them one by one
+class DeviceGroup implements Device {
+
+    private List<Device> devices;
+
+    public DeviceGroup(List<? extends Device> devices) {
+        this.devices = List.copyOf(devices);
+    }
+
+    public void enable() {
+        for (Device device : devices)
+            device.enable();
+    }
+
+    public void disable() {
+        for (Device device : devices)
+            device.disable();
+    }
+
+    public List<Device> getDevices() {
+        return devices;
+    }
+}
+
 // Abstraction - Remote Control
 abstract class RemoteControl {
 
@@ -84,6 +138,200 @@ class UltimateRemote extends RemoteControl {
     }
 }
 
+// Command a group remote can send to a device
+enum DeviceCommand {
+    ON, OFF;
+
+    void applyTo(Device device) {
+        if (this == ON)
+            device.enable();
+        else
+            device.disable();
+    }
+}
+
+// Outcome of one command on one device
+class CommandResult {
+
+    enum Status { DONE, SKIPPED, FAILED, TIMED_OUT }
+
+    final Device device;
+    final DeviceCommand command;
+    final Status status;
+    final long latencyNanos;  // from the start of the call; 0 when skipped
+    final String error;
+
+    CommandResult(Device device, DeviceCommand command, Status status, long latencyNanos, String error) {
+        this.device = device;
+        this.command = command;
+        this.status = status;
+        this.latencyNanos = latencyNanos;
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return device + " " + command + ": " + status + (error == null ? "" : " (" + error + ")");
+    }
+}
+
+// Refined Abstraction - sends commands to a group of devices at once.
+// turnOn()/turnOff() only record the wanted state per device; dispatch() sends the last wanted
+// command to each device, skipping devices already confirmed in that state, so "on then off"
+// costs one call per device, or none.
+class GroupRemote extends RemoteControl implements AutoCloseable {
+
+    private DeviceGroup group;
+    private long timeoutMillis;
+    private Semaphore inFlight;  // caps device calls running at the same time
+
+    private Map<Device, DeviceCommand> pending = new LinkedHashMap<>();      // guarded by this
+    private Map<Device, DeviceCommand> confirmed = new ConcurrentHashMap<>(); // last state a device acknowledged
+
+    private ExecutorService executor = RemoteCalls.newThreadPerTaskExecutor("device-call");
+
+    /**
+     * @param devices        devices the remote controls
+     * @param maxParallel    device calls allowed at the same time
+     * @param timeoutMillis  time after which a call is reported as timed out and interrupted
+     */
+    public GroupRemote(List<? extends Device> devices, int maxParallel, long timeoutMillis) {
+        this(new DeviceGroup(devices), maxParallel, timeoutMillis);
+    }
+
+    /**
+     * @param group          devices the remote controls
+     * @param maxParallel    device calls allowed at the same time
+     * @param timeoutMillis  time after which a call is reported as timed out and interrupted
+     */
+    public GroupRemote(DeviceGroup group, int maxParallel, long timeoutMillis) {
+        super(group);
+        if (maxParallel <= 0 || timeoutMillis <= 0)
+            throw new IllegalArgumentException("Invalid group remote limits");
+        this.group = group;
+        this.timeoutMillis = timeoutMillis;
+        this.inFlight = new Semaphore(maxParallel);
+    }
+
+    /**
+     * Queues ON for every device in the group.
+     */
+    public void turnOn() {
+        queue(DeviceCommand.ON);
+    }
+
+    /**
+     * Queues OFF for every device in the group.
+     */
+    public void turnOff() {
+        queue(DeviceCommand.OFF);
+    }
+
+    /**
+     * Queues a command for one device, replacing any command still pending for it.
+     */
+    public synchronized void queue(Device device, DeviceCommand command) {
+        pending.put(device, command);
+    }
+
+    /**
+     * Sends the pending commands and waits for every device to answer or time out.
+     * Results are in group order. A timed-out device may still apply the command, so its
+     * state is treated as unknown and the next command to it is always sent.
+     * If interrupted while waiting to send, the commands not yet sent are queued again.
+     */
+    public List<CommandResult> dispatch() throws InterruptedException {
+        Map<Device, DeviceCommand> commands;
+        synchronized (this) {
+            commands = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        List<CompletableFuture<CommandResult>> results = new ArrayList<>(commands.size());
+        Iterator<Map.Entry<Device, DeviceCommand>> unsent = commands.entrySet().iterator();
+        while (unsent.hasNext()) {
+            Map.Entry<Device, DeviceCommand> entry = unsent.next();
+            Device device = entry.getKey();
+            DeviceCommand command = entry.getValue();
+            if (confirmed.get(device) == command) {
+                results.add(CompletableFuture.completedFuture(
+                        new CommandResult(device, command, CommandResult.Status.SKIPPED, 0, null)));
+                unsent.remove();
+                continue;
+            }
+            try {
+                inFlight.acquire();  // the caller waits here once maxParallel calls are running
+            } catch (InterruptedException e) {
+                requeue(commands);
+                throw e;
+            }
+            results.add(send(device, command));
+            unsent.remove();
+        }
+
+        List<CommandResult> collected = new ArrayList<>(results.size());
+        for (CompletableFuture<CommandResult> result : results)
+            collected.add(result.join());
+        return collected;
+    }
+
+    /**
+     * Waits for calls still running, then stops the remote.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Puts back commands a dispatch did not send, unless a newer command was queued meanwhile
+    private synchronized void requeue(Map<Device, DeviceCommand> unsent) {
+        for (Map.Entry<Device, DeviceCommand> newer : pending.entrySet())
+            unsent.put(newer.getKey(), newer.getValue());
+        pending = new LinkedHashMap<>(unsent);
+    }
+
+    private synchronized void queue(DeviceCommand command) {
+        for (Device device : group.getDevices())
+            pending.put(device, command);
+    }
+
+    // Runs one call on its own thread; the caller already holds an inFlight permit for it
+    private CompletableFuture<CommandResult> send(Device device, DeviceCommand command) {
+        CompletableFuture<CommandResult> result = new CompletableFuture<>();
+        long begin = System.nanoTime();
+        Future<?> call;
+        try {
+            call = executor.submit(() -> {
+                try {
+                    command.applyTo(device);
+                    if (result.complete(new CommandResult(device, command, CommandResult.Status.DONE,
+                            System.nanoTime() - begin, null)))
+                        confirmed.put(device, command);
+                } catch (RuntimeException e) {
+                    confirmed.remove(device);
+                    result.complete(new CommandResult(device, command, CommandResult.Status.FAILED,
+                            System.nanoTime() - begin, e.getMessage()));
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            result.complete(new CommandResult(device, command, CommandResult.Status.FAILED, 0, "remote is closed"));
+            return result;
+        }
+
+        RemoteCalls.timeout(result, call, timeoutMillis, () -> new CommandResult(device, command,
+                CommandResult.Status.TIMED_OUT, System.nanoTime() - begin, "no answer after " + timeoutMillis + " ms"),
+                () -> confirmed.remove(device));
+        return result;
+    }
+}
+
 // Client - Demonstrates Bridge usage
 public class Bridge {
     public static void main(String[] args) {
@@ -99,5 +347,112 @@ public class Bridge {
         RemoteControl radioRemote = new UltimateRemote(new Radio());
         radioRemote.turnOn();
         radioRemote.turnOff();
+
+        System.out.println();
+        try {
+            printCoalescingDemo();
+            checkInterruptedDispatch();
+            printFleetReport();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues on/off flips on a small group and shows how many calls actually reach the devices.
+     */
+    static void printCoalescingDemo() throws InterruptedException {
+        List<SimulatedDevice> group = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            group.add(new SimulatedDevice("lamp-" + i, 5));
+        group.get(3).setFailing(true);
+
+        try (GroupRemote remote = new GroupRemote(group, 2, 1_000)) {
+            remote.turnOn();
+            remote.turnOff();
+            remote.turnOn();
+            System.out.println("on, off, on: " + remote.dispatch());
+            remote.turnOff();
+            remote.turnOn();
+            System.out.println("off, on again: " + remote.dispatch());
+        }
+        int calls = 0;
+        for (SimulatedDevice device : group)
+            calls += device.getCalls();
+        System.out.println("device calls for 5 group commands on 4 devices: " + calls);
+    }
+
+    /**
+     * Interrupts a dispatch before it sends anything; the commands must stay queued and go out
+     * with the next dispatch.
+     */
+    static void checkInterruptedDispatch() throws InterruptedException {
+        List<SimulatedDevice> group = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            group.add(new SimulatedDevice("fan-" + i, 5));
+
+        try (GroupRemote remote = new GroupRemote(group, 1, 1_000)) {
+            remote.turnOn();
+            Thread.currentThread().interrupt();
+            try {
+                remote.dispatch();
+                throw new IllegalStateException("dispatch ignored the interrupt");
+            } catch (InterruptedException expected) {
+                // the commands were put back
+            }
+            List<CommandResult> results = remote.dispatch();
+            for (CommandResult result : results)
+                if (result.status != CommandResult.Status.DONE)
+                    throw new IllegalStateException("Requeued command not sent: " + result);
+            if (results.size() != group.size())
+                throw new IllegalStateException("Lost commands after interrupt: " + results);
+        }
+        System.out.println("Commands interrupted before sending were sent by the next dispatch");
+    }
+
+    /**
+     * Turns a fleet of 10,000 simulated devices (20 ms each, 1% taking 2 s) on with different
+     * parallelism caps, and a few hundred of them one by one through UltimateRemote for comparison.
+     */
+    static void printFleetReport() throws InterruptedException {
+        List<SimulatedDevice> fleet = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            SimulatedDevice device = new SimulatedDevice("tv-" + i, 20);
+            device.setTail(0.01, 2_000);
+            fleet.add(device);
+        }
+
+        System.out.println("=== Turning on " + fleet.size() + " devices, 20 ms each, 1% unresponsive ===");
+        int sample = 200;
+        long begin = System.nanoTime();
+        new UltimateRemote(new DeviceGroup(fleet.subList(0, sample))).turnOn();
+        double sequentialMillis = (System.nanoTime() - begin) / 1e6;
+        System.out.printf("one by one:        %8.0f ms for %d devices (~%.0f s for the fleet)%n",
+                sequentialMillis, sample, sequentialMillis / sample * fleet.size() / 1000);
+
+        for (int maxParallel : new int[]{64, 256, 1_024}) {
+            // A new remote knows no device state, so every device gets the call
+            try (GroupRemote remote = new GroupRemote(fleet, maxParallel, 200)) {
+                remote.turnOn();
+                begin = System.nanoTime();
+                List<CommandResult> results = remote.dispatch();
+                double millis = (System.nanoTime() - begin) / 1e6;
+
+                long[] latencies = new long[results.size()];
+                int done = 0, timedOut = 0;
+                for (int i = 0; i < results.size(); i++) {
+                    CommandResult result = results.get(i);
+                    latencies[i] = result.latencyNanos;
+                    if (result.status == CommandResult.Status.DONE)
+                        done++;
+                    else if (result.status == CommandResult.Status.TIMED_OUT)
+                        timedOut++;
+                }
+                Arrays.sort(latencies);
+                System.out.printf("%5d in flight:   %8.0f ms  done %d, timed out %d, p50 %.1f ms, p99 %.1f ms%n",
+                        maxParallel, millis, done, timedOut, latencies[latencies.length / 2] / 1e6,
+                        latencies[latencies.length * 99 / 100] / 1e6);
+            }
+        }
     }
 }
@@ -1,5 +1,12 @@
 package com.learning.deisgnpatterns.structural;
+import com.learning.deisgnpatterns.Money;
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * COMPOSITE DESIGN PATTERN - JAVA IMPLEMENTATION
@@ -10,6 +17,8 @@ import java.util.*;
  * Real-World Analogy:
  * Think of a shopping cart where you can add both individual products (like a book)
  * and product bundles (like a phone + case + earphones combo) — all of them have a cost and description.
+ *
+ * Costs are Money values (see com.learning.deisgnpatterns.Money), so totals are exact.
  */
 
 // Component Interface
@@ -19,22 +28,79 @@ interface CartItem {
      */
     void Description();
 
+    /**
+     * Writes the same text as Description() to a receipt.
+     */
+    void describeTo(ReceiptWriter receipt);
+
     /**
      * Returns the cost of the item.
      */
-    double getCost();
+    Money getCost();
+}
+
+// Base for cart items that can sit inside a bundle.
+// Keeps the link to the enclosing bundle so cost changes are pushed up instead of recomputed.
+abstract class BundledItem implements CartItem {
+
+    private ProductBundle parent;
+
+    /**
+     * Returns the bundle this item belongs to, or null.
+     */
+    public ProductBundle getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns the number of products in this item (1 for a product).
+     */
+    public abstract int getLeafCount();
+
+    void attachTo(ProductBundle bundle) {
+        if (parent != null)
+            throw new IllegalArgumentException("Item already belongs to a bundle");
+        parent = bundle;
+    }
+
+    void detach() {
+        parent = null;
+    }
+
+    /**
+     * Adds the cost and product count change to every enclosing bundle.
+     * The delta is a packed amount (see Money.toPacked).
+     */
+    protected void propagate(long delta, int leafDelta) {
+        addToBundles(parent, delta, leafDelta);
+    }
+
+    /**
+     * Adds the packed cost change to the bundle and every bundle enclosing it. Either all
+     * subtotals change or, when the delta does not fit one of them (other currency, overflow),
+     * none do.
+     */
+    static void addToBundles(ProductBundle first, long delta, int leafDelta) {
+        // Every sum is checked before any is stored; only the new subtotals are allocated
+        for (ProductBundle bundle = first; bundle != null; bundle = bundle.getParent())
+            Money.add(bundle.getCost().toPacked(), delta);
+
+        for (ProductBundle bundle = first; bundle != null; bundle = bundle.getParent())
+            bundle.setSubtotal(Money.fromPacked(Money.add(bundle.getCost().toPacked(), delta)), leafDelta);
+    }
 }
 
 // Leaf node - represents an individual product
-class Product implements CartItem {
+class Product extends BundledItem {
 
     private String name;
-    private double cost;
+    private Money cost;
+    private int taxRate;  // basis points, e.g. 1800 for 18% GST
 
     /**
      * Creates a new product with name and cost.
      */
-    public Product(String name, double cost) {
+    public Product(String name, Money cost) {
         this.name = name;
         this.cost = cost;
     }
@@ -43,36 +109,92 @@ class Product implements CartItem {
      * Displays product name and cost.
      */
     public void Description() {
-        System.out.println(name + " - ₹" + cost);
+        System.out.println(name + " - " + cost);
+    }
+
+    public void describeTo(ReceiptWriter receipt) {
+        receipt.append(name).append(" - ").appendMoney(cost).newLine();
     }
 
     /**
      * Returns product cost.
      */
-    public double getCost() {
+    public Money getCost() {
         return cost;
     }
+
+    /**
+     * Changes the price and updates the subtotals of the enclosing bundles.
+     */
+    public void setCost(Money cost) {
+        propagate(Money.add(cost.toPacked(), Money.negate(this.cost.toPacked())), 0);
+        this.cost = cost;
+    }
+
+    public int getTaxRate() {
+        return taxRate;
+    }
+
+    /**
+     * Sets the tax rate in basis points (1800 = 18%).
+     */
+    public void setTaxRate(int taxRate) {
+        this.taxRate = taxRate;
+    }
+
+    public int getLeafCount() {
+        return 1;
+    }
 }
 
-// Composite node - represents a bundle of products
-class ProductBundle implements CartItem {
+// Composite node - represents a bundle of products and other bundles
+class ProductBundle extends BundledItem {
 
     private String bundleName;
-    private List<Product> products;
+    private Set<BundledItem> items;  // insertion ordered, O(1) removal
+    private Money subtotal = Money.ZERO;  // kept up to date on every add/remove/price change
+    private int leafCount;
+    private int discount;            // basis points taken off the bundle price, e.g. 1000 for 10%
 
     /**
      * Creates a new product bundle with a name.
      */
     public ProductBundle(String bundleName) {
         this.bundleName = bundleName;
-        this.products = new ArrayList<>();
+        this.items = new LinkedHashSet<>();
+    }
+
+    /**
+     * Adds a product or a nested bundle to the bundle.
+     */
+    public void addItem(BundledItem item) {
+        for (ProductBundle bundle = this; bundle != null; bundle = bundle.getParent())
+            if (bundle == item)
+                throw new IllegalArgumentException("Bundle cannot contain itself");
+
+        if (item.getParent() != null)
+            throw new IllegalArgumentException("Item already belongs to a bundle");
+
+        addToBundles(this, item.getCost().toPacked(), item.getLeafCount());
+        item.attachTo(this);
+        items.add(item);
+    }
+
+    /**
+     * Removes a product or nested bundle from the bundle.
+     */
+    public void removeItem(BundledItem item) {
+        if (!items.remove(item))
+            throw new IllegalArgumentException("Item is not in bundle " + bundleName);
+        item.detach();
+        addToBundles(this, Money.negate(item.getCost().toPacked()), -item.getLeafCount());
     }
 
     /**
-     * Adds a product to the bundle.
+     * Returns the direct children in insertion order.
      */
-    public void addItem(Product product) {
-        products.add(product);
+    public BundledItem[] getItems() {
+        return items.toArray(new BundledItem[0]);
     }
 
     /**
@@ -80,41 +202,372 @@ class ProductBundle implements CartItem {
      */
     public void Description() {
         System.out.println("Bundle: " + bundleName);
-        for (Product p : products) {
-            p.Description();
+        for (BundledItem item : items) {
+            item.Description();
         }
         System.out.println();
     }
 
+    public void describeTo(ReceiptWriter receipt) {
+        receipt.append("Bundle: ").append(bundleName).newLine();
+        for (BundledItem item : items)
+            item.describeTo(receipt);
+        receipt.newLine();
+    }
+
     /**
-     * Calculates total cost of all items in the bundle.
+     * Returns the total cost of all items in the bundle from the cached subtotal (O(1)).
+     * Discounts and tax are applied by CartEvaluator.
      */
-    public double getCost() {
-        double totalCost = 0;
-        for (Product p : products) {
-            totalCost += p.getCost();
+    public Money getCost() {
+        return subtotal;
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    public int getDiscount() {
+        return discount;
+    }
+
+    /**
+     * Sets the bundle discount in basis points (1000 = 10%).
+     */
+    public void setDiscount(int discount) {
+        if (discount < 0 || discount > 10_000)
+            throw new IllegalArgumentException("Discount must be between 0 and 10000 basis points: " + discount);
+        this.discount = discount;
+    }
+
+    void setSubtotal(Money subtotal, int leafDelta) {
+        this.subtotal = subtotal;
+        leafCount += leafDelta;
+    }
+}
+
+// Price breakdown of a cart item: list price, price after bundle discounts, and tax on that price.
+// Amounts are kept packed (see Money.toPacked), so adding totals up allocates nothing per item.
+class CartTotals {
+    static final CartTotals ZERO = new CartTotals(0L, 0L, 0L);
+
+    final long gross;
+    final long net;
+    final long tax;
+
+    CartTotals(long gross, long net, long tax) {
+        this.gross = gross;
+        this.net = net;
+        this.tax = tax;
+    }
+
+    /**
+     * Applies a bundle discount (basis points) to the net price and the tax owed on it.
+     */
+    CartTotals discounted(int discount) {
+        if (discount == 0)
+            return this;
+        return new CartTotals(gross, Money.add(net, Money.negate(Money.applyRate(net, discount))),
+                Money.add(tax, Money.negate(Money.applyRate(tax, discount))));
+    }
+
+    Money getGross() {
+        return Money.fromPacked(gross);
+    }
+
+    Money getDiscount() {
+        return Money.fromPacked(Money.add(gross, Money.negate(net)));
+    }
+
+    Money getTax() {
+        return Money.fromPacked(tax);
+    }
+
+    Money getPayable() {
+        return Money.fromPacked(Money.add(net, tax));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CartTotals))
+            return false;
+        CartTotals other = (CartTotals) o;
+        return gross == other.gross && net == other.net && tax == other.tax;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(gross, net, tax);
+    }
+
+    @Override
+    public String toString() {
+        return "gross " + getGross() + ", discount " + getDiscount() + ", tax " + getTax() + ", payable " + getPayable();
+    }
+
+    // Running sum of totals; products are added from their cost and tax rate without a CartTotals each
+    static final class Sum {
+
+        private long gross;
+        private long net;
+        private long tax;
+
+        void add(Product product) {
+            long cost = product.getCost().toPacked();
+            gross = Money.add(gross, cost);
+            net = Money.add(net, cost);
+            tax = Money.add(tax, Money.applyRate(cost, product.getTaxRate()));
+        }
+
+        void add(CartTotals totals) {
+            gross = Money.add(gross, totals.gross);
+            net = Money.add(net, totals.net);
+            tax = Money.add(tax, totals.tax);
+        }
+
+        CartTotals toTotals() {
+            return new CartTotals(gross, net, tax);
         }
-        return totalCost;
+    }
+}
+
+// Prices a cart tree serially or on a fork-join pool.
+// Money arithmetic is exact and discounts are rounded per bundle, so both paths return identical
+// results. Children are summed in fixed blocks of BLOCK items, which is also the parallel task size.
+class CartEvaluator {
+
+    static final int BLOCK = 1024;
+
+    private ForkJoinPool pool;
+    private int threshold;  // bundles with fewer products than this are priced serially
+
+    public CartEvaluator(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Prices the item on the calling thread.
+     */
+    public static CartTotals evaluate(BundledItem item) {
+        CartTotals.Sum total = new CartTotals.Sum();
+        if (item instanceof Product) {
+            total.add((Product) item);
+            return total.toTotals();
+        }
+
+        ProductBundle bundle = (ProductBundle) item;
+        BundledItem[] items = bundle.getItems();
+        CartTotals.Sum block = new CartTotals.Sum();
+        for (int from = 0; from < items.length; from += BLOCK) {
+            for (int i = from; i < Math.min(items.length, from + BLOCK); i++)
+                add(block, items[i]);
+            total.add(block.toTotals());
+            block = new CartTotals.Sum();
+        }
+        return total.toTotals().discounted(bundle.getDiscount());
+    }
+
+    /**
+     * Prices the item on the pool, splitting large bundles into blocks and nested bundles into tasks.
+     */
+    public CartTotals evaluateParallel(BundledItem item) {
+        return pool.invoke(new ItemTask(item));
+    }
+
+    private static void add(CartTotals.Sum sum, BundledItem item) {
+        if (item instanceof Product)
+            sum.add((Product) item);
+        else
+            sum.add(evaluate(item));
+    }
+
+    private class ItemTask extends RecursiveTask<CartTotals> {
+
+        private static final long serialVersionUID = 1L;
+
+        private BundledItem item;
+
+        ItemTask(BundledItem item) {
+            this.item = item;
+        }
+
+        protected CartTotals compute() {
+            if (item.getLeafCount() < threshold || item instanceof Product)
+                return evaluate(item);
+
+            ProductBundle bundle = (ProductBundle) item;
+            BundledItem[] items = bundle.getItems();
+            List<BlockTask> blocks = new ArrayList<>();
+            for (int from = 0; from < items.length; from += BLOCK)
+                blocks.add(new BlockTask(items, from, Math.min(items.length, from + BLOCK)));
+            invokeAll(blocks);
+
+            CartTotals.Sum total = new CartTotals.Sum();
+            for (BlockTask block : blocks)
+                total.add(block.join());
+            return total.toTotals().discounted(bundle.getDiscount());
+        }
+    }
+
+    private boolean isForked(BundledItem item) {
+        return item.getLeafCount() >= threshold && item instanceof ProductBundle;
+    }
+
+    private class BlockTask extends RecursiveTask<CartTotals> {
+
+        private static final long serialVersionUID = 1L;
+
+        private BundledItem[] items;
+        private int from;
+        private int to;
+
+        BlockTask(BundledItem[] items, int from, int to) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected CartTotals compute() {
+            // Fork the large nested bundles first, then add everything up in order
+            List<ItemTask> forked = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                if (isForked(items[i])) {
+                    ItemTask task = new ItemTask(items[i]);
+                    task.fork();
+                    forked.add(task);
+                }
+            }
+
+            CartTotals.Sum block = new CartTotals.Sum();
+            int next = 0;
+            for (int i = from; i < to; i++) {
+                if (isForked(items[i]))
+                    block.add(forked.get(next++).join());
+                else
+                    add(block, items[i]);
+            }
+            return block.toTotals();
+        }
+    }
+}
+
+// Streams receipt text into a reusable buffer and hands it to the destination in chunks,
+// so a large cart costs a handful of writes instead of a synchronized println per line
+class ReceiptWriter implements Flushable {
+
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private Appendable out;
+    private StringBuilder buffer;
+    private int chunkSize;
+    private long flushes;
+
+    /**
+     * Creates a writer that flushes to out whenever chunkSize characters are buffered.
+     */
+    public ReceiptWriter(Appendable out, int chunkSize) {
+        this.out = out;
+        this.chunkSize = chunkSize;
+        this.buffer = new StringBuilder(chunkSize + 256);
+    }
+
+    /**
+     * Writer encoding to a byte channel (file, socket, stdout) as UTF-8.
+     */
+    public static ReceiptWriter toChannel(WritableByteChannel channel, int chunkSize) {
+        return new ReceiptWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), chunkSize);
+    }
+
+    public ReceiptWriter append(CharSequence text) {
+        buffer.append(text);
+        return this;
+    }
+
+    public ReceiptWriter appendMoney(Money money) {
+        money.formatTo(buffer);
+        return this;
+    }
+
+    public ReceiptWriter newLine() {
+        buffer.append(NEW_LINE);
+        if (buffer.length() >= chunkSize)
+            drain();
+        return this;
+    }
+
+    /**
+     * Writes out the buffered text and flushes the destination if it buffers too.
+     */
+    public void flush() {
+        drain();
+        try {
+            if (out instanceof Flushable)
+                ((Flushable) out).flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    private void drain() {
+        if (buffer.length() == 0)
+            return;
+        try {
+            out.append(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.setLength(0);
+        flushes++;
     }
 }
 
 // Client class that processes the cart
 class CartCheckoutService {
 
+    private ReceiptWriter receipt;
+    private boolean itemized;
+
+    /**
+     * Prints the itemized receipt to standard output.
+     */
+    public CartCheckoutService() {
+        this(new ReceiptWriter(System.out, 8192), true);
+    }
+
+    /**
+     * Writes to the given receipt; with itemized false only the total line is written and items
+     * are not rendered at all.
+     */
+    public CartCheckoutService(ReceiptWriter receipt, boolean itemized) {
+        this.receipt = receipt;
+        this.itemized = itemized;
+    }
+
     /**
-     * Calculates total cost and prints descriptions of all items in the cart.
+     * Calculates total cost, writes the receipt and returns the total.
      */
-    public void checkoutCart(List<CartItem> cart) {
-        double totalAmount = 0;
+    public Money checkoutCart(List<CartItem> cart) {
+        long total = 0L;  // packed, so the loop allocates nothing per item
 
-        System.out.println("=== Cart Items ===");
+        if (itemized)
+            receipt.append("=== Cart Items ===").newLine();
         for (CartItem item : cart) {
-            item.Description();            // Polymorphic call
-            totalAmount += item.getCost(); // Works for both Product and Bundle
+            if (itemized)
+                item.describeTo(receipt);                         // Polymorphic call
+            total = Money.add(total, item.getCost().toPacked());  // Works for both Product and Bundle
         }
+        Money totalAmount = Money.fromPacked(total);
 
-        System.out.println("==================");
-        System.out.println("Total amount to be paid: ₹" + totalAmount);
+        if (itemized)
+            receipt.append("==================").newLine();
+        receipt.append("Total amount to be paid: ").appendMoney(totalAmount).newLine();
+        receipt.flush();
+        return totalAmount;
     }
 }
 
@@ -124,9 +577,9 @@ public class Composite {
     public static void main(String[] args) {
 
         // Create individual products
-        Product iPhone = new Product("iPhone 16", 150000);
-        Product tws = new Product("Boat TWS", 1500);
-        Product book = new Product("Atomic Habits", 600);
+        Product iPhone = new Product("iPhone 16", Money.inr(150000));
+        Product tws = new Product("Boat TWS", Money.inr(1500));
+        Product book = new Product("Atomic Habits", Money.inr(600));
 
         // Create a bundle with iPhone + TWS
         ProductBundle iPhoneCombo = new ProductBundle("iPhone Combo");
@@ -141,5 +594,315 @@ public class Composite {
         // Perform checkout
         CartCheckoutService checkoutService = new CartCheckoutService();
         checkoutService.checkoutCart(cart);
+
+        // Price changes and removals update the bundle total without walking it
+        tws.setCost(Money.inr(1200));
+        iPhoneCombo.removeItem(iPhone);
+        iPhoneCombo.addItem(new Product("Case", Money.inr(800)));
+        checkoutService.checkoutCart(cart);
+
+        // Bundles can hold other bundles; discounts apply to everything inside
+        ProductBundle gift = new ProductBundle("Gift Box");
+        gift.setDiscount(1000);
+        gift.addItem(iPhoneCombo);
+        Product ribbon = new Product("Ribbon", Money.inr(50));
+        ribbon.setTaxRate(1800);
+        gift.addItem(ribbon);
+        System.out.println("Gift box: " + CartEvaluator.evaluate(gift));
+
+        System.out.println();
+        checkIncrementalCosts();
+        checkMixedCurrencies();
+        printCostBenchmark();
+        printParallelEvaluationReport();
+        printMoneySumBenchmark();
+        printReceiptBenchmark();
+    }
+
+    /**
+     * Checks out a cart of 1M products (1,000 bundles of 1,000) three ways: the old per-item
+     * Description() through a line-flushing PrintStream, the streaming receipt to a file channel,
+     * and totals only. The first two must produce the same bytes.
+     */
+    static void printReceiptBenchmark() {
+        List<CartItem> cart = new ArrayList<>();
+        for (int b = 0; b < 1_000; b++) {
+            ProductBundle bundle = new ProductBundle("Bundle " + b);
+            for (int p = 0; p < 1_000; p++)
+                bundle.addItem(new Product("Item " + p, Money.of(100 + p * 7L, Money.Currency.INR)));
+            cart.add(bundle);
+        }
+        int items = cart.size() * 1_000;
+
+        try {
+            Path before = Files.createTempFile("receipt-println", ".txt");
+            Path after = Files.createTempFile("receipt-stream", ".txt");
+            try {
+                PrintStream console = System.out;
+                long begin = System.nanoTime();
+                try (PrintStream file = new PrintStream(new BufferedOutputStream(Files.newOutputStream(before)), true, "UTF-8")) {
+                    System.setOut(file);  // same autoflush-on-println setup as the console
+                    Money totalAmount = Money.ZERO;
+                    System.out.println("=== Cart Items ===");
+                    for (CartItem item : cart) {
+                        item.Description();
+                        totalAmount = totalAmount.plus(item.getCost());
+                    }
+                    System.out.println("==================");
+                    System.out.println("Total amount to be paid: " + totalAmount);
+                } finally {
+                    System.setOut(console);
+                }
+                double printlnMillis = (System.nanoTime() - begin) / 1e6;
+
+                begin = System.nanoTime();
+                ReceiptWriter receipt;
+                try (FileChannel channel = FileChannel.open(after, StandardOpenOption.WRITE)) {
+                    receipt = ReceiptWriter.toChannel(channel, 64 * 1024);
+                    new CartCheckoutService(receipt, true).checkoutCart(cart);
+                }
+                double streamMillis = (System.nanoTime() - begin) / 1e6;
+
+                begin = System.nanoTime();
+                StringBuilder totalsOnly = new StringBuilder();
+                new CartCheckoutService(new ReceiptWriter(totalsOnly, 8192), false).checkoutCart(cart);
+                double totalsMillis = (System.nanoTime() - begin) / 1e6;
+
+                if (Files.mismatch(before, after) != -1)
+                    throw new IllegalStateException("Streamed receipt differs from println output");
+
+                System.out.println("=== Checkout of " + items + " items (" + Files.size(after) / 1024 + " KB receipt) ===");
+                System.out.printf("println per item: %8.1f ms  %,10.0f items/sec%n", printlnMillis, items / printlnMillis * 1000);
+                System.out.printf("streamed receipt: %8.1f ms  %,10.0f items/sec (%d writes)%n", streamMillis,
+                        items / streamMillis * 1000, receipt.getFlushes());
+                System.out.printf("totals only:      %8.1f ms  %,10.0f items/sec%n", totalsMillis, items / totalsMillis * 1000);
+            } finally {
+                Files.delete(before);
+                Files.delete(after);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Totals 1M line items of a few rupees each through checkoutCart and CartEvaluator, and
+     * as double and BigDecimal for comparison, printing time and the total each produced.
+     * The Money totals must match BigDecimal exactly.
+     */
+    static void printMoneySumBenchmark() {
+        int items = 1_000_000;
+        int passes = 10;
+        Random random = new Random(3);
+        List<CartItem> cart = new ArrayList<>(items);
+        ProductBundle bundle = new ProductBundle("Everything");
+        double[] doubles = new double[items];
+        BigDecimal[] decimals = new BigDecimal[items];
+        for (int i = 0; i < items; i++) {
+            long paise = 1 + random.nextInt(99_999);
+            Product product = new Product("Item " + i, Money.of(paise, Money.Currency.INR));
+            cart.add(product);
+            bundle.addItem(product);
+            doubles[i] = paise / 100.0;
+            decimals[i] = BigDecimal.valueOf(paise, 2);
+        }
+        CartCheckoutService checkout = new CartCheckoutService(new ReceiptWriter(new StringBuilder(), 8192), false);
+
+        for (int round = 0; round < 2; round++) {  // the first round warms up
+            long begin = System.nanoTime();
+            Money checkoutTotal = Money.ZERO;
+            for (int pass = 0; pass < passes; pass++)
+                checkoutTotal = checkout.checkoutCart(cart);
+            double checkoutMillis = (System.nanoTime() - begin) / 1e6 / passes;
+
+            begin = System.nanoTime();
+            CartTotals evaluated = CartTotals.ZERO;
+            for (int pass = 0; pass < passes; pass++)
+                evaluated = CartEvaluator.evaluate(bundle);
+            double evaluatorMillis = (System.nanoTime() - begin) / 1e6 / passes;
+
+            begin = System.nanoTime();
+            double doubleTotal = 0;
+            for (int pass = 0; pass < passes; pass++) {
+                doubleTotal = 0;
+                for (double amount : doubles)
+                    doubleTotal += amount;
+            }
+            double doubleMillis = (System.nanoTime() - begin) / 1e6 / passes;
+
+            begin = System.nanoTime();
+            BigDecimal decimalTotal = BigDecimal.ZERO;
+            for (int pass = 0; pass < passes; pass++) {
+                decimalTotal = BigDecimal.ZERO;
+                for (BigDecimal amount : decimals)
+                    decimalTotal = decimalTotal.add(amount);
+            }
+            double decimalMillis = (System.nanoTime() - begin) / 1e6 / passes;
+
+            BigDecimal exact = BigDecimal.valueOf(checkoutTotal.minorUnits(), 2);
+            if (exact.compareTo(decimalTotal) != 0 || !evaluated.getGross().equals(checkoutTotal))
+                throw new IllegalStateException("Money totals " + checkoutTotal + " / " + evaluated.getGross()
+                        + " differ from ₹" + decimalTotal.toPlainString());
+
+            if (round == 1) {
+                System.out.println("=== Totalling " + items + " line items ===");
+                System.out.printf("checkoutCart:  %7.1f ms  %s%n", checkoutMillis, checkoutTotal);
+                System.out.printf("CartEvaluator: %7.1f ms  %s%n", evaluatorMillis, evaluated.getGross());
+                System.out.printf("double:        %7.1f ms  ₹%.2f (%s)%n", doubleMillis, doubleTotal,
+                        BigDecimal.valueOf(doubleTotal).subtract(decimalTotal).toPlainString() + " off");
+                System.out.printf("BigDecimal:    %7.1f ms  ₹%s%n", decimalMillis, decimalTotal.toPlainString());
+            }
+        }
+    }
+
+    /**
+     * Prices a nested catalog of about a million products serially and on pools of increasing
+     * parallelism, checking that every run returns exactly the serial result.
+     */
+    static void printParallelEvaluationReport() {
+        Random random = new Random(11);
+        ProductBundle catalog = buildCatalog(random, 0);
+
+        CartEvaluator.evaluate(catalog);  // warm up
+        long begin = System.nanoTime();
+        CartTotals serial = CartEvaluator.evaluate(catalog);
+        double serialMillis = (System.nanoTime() - begin) / 1e6;
+
+        System.out.println("=== Pricing " + catalog.getLeafCount() + " products ===");
+        System.out.printf("serial:        %8.1f ms%n", serialMillis);
+        for (int parallelism = 1; parallelism <= Runtime.getRuntime().availableProcessors(); parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            CartEvaluator evaluator = new CartEvaluator(pool, 10_000);
+            evaluator.evaluateParallel(catalog);  // warm up
+
+            begin = System.nanoTime();
+            CartTotals parallel = evaluator.evaluateParallel(catalog);
+            double millis = (System.nanoTime() - begin) / 1e6;
+            pool.shutdown();
+
+            if (!parallel.equals(serial))
+                throw new IllegalStateException("Parallel result " + parallel + " differs from " + serial);
+            System.out.printf("%2d threads:    %8.1f ms (speedup %.1fx)%n", parallelism, millis, serialMillis / millis);
+        }
+        System.out.println(serial);
+    }
+
+    /**
+     * Five levels of bundles, 4 to 12 children each, with products at the bottom.
+     */
+    private static ProductBundle buildCatalog(Random random, int depth) {
+        ProductBundle bundle = new ProductBundle("Level " + depth);
+        bundle.setDiscount(random.nextInt(4) * 500);
+        int children = 4 + random.nextInt(9);
+        for (int i = 0; i < children; i++) {
+            if (depth < 4) {
+                bundle.addItem(buildCatalog(random, depth + 1));
+            } else {
+                for (int p = 0; p < 40; p++) {
+                    Product product = new Product("Item", Money.of(100 + random.nextInt(5_000), Money.Currency.INR));
+                    product.setTaxRate(p % 3 == 0 ? 500 : 1800);
+                    bundle.addItem(product);
+                }
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * Applies random adds, removes and price changes and compares the cached bundle cost
+     * with a total recomputed from scratch after every step.
+     */
+    static void checkIncrementalCosts() {
+        Random random = new Random(7);
+        ProductBundle bundle = new ProductBundle("Random");
+        List<Product> inBundle = new ArrayList<>();
+
+        for (int step = 0; step < 10_000; step++) {
+            int action = inBundle.isEmpty() ? 0 : random.nextInt(3);
+            if (action == 0) {
+                Product product = new Product("P" + step, Money.of(random.nextInt(10_000), Money.Currency.INR));
+                bundle.addItem(product);
+                inBundle.add(product);
+            } else if (action == 1) {
+                bundle.removeItem(inBundle.remove(random.nextInt(inBundle.size())));
+            } else {
+                inBundle.get(random.nextInt(inBundle.size())).setCost(Money.of(random.nextInt(10_000), Money.Currency.INR));
+            }
+
+            Money expected = Money.ZERO;
+            for (Product product : inBundle)
+                expected = expected.plus(product.getCost());
+            if (expected.minorUnits() != bundle.getCost().minorUnits())
+                throw new IllegalStateException("Cached cost " + bundle.getCost() + " != " + expected + " at step " + step);
+        }
+        System.out.println("Incremental costs match full recomputation after 10,000 mutations");
+    }
+
+    /**
+     * Adds and reprices items in a currency the outer bundle does not use and checks that the
+     * rejected change leaves every subtotal on the way up untouched.
+     */
+    static void checkMixedCurrencies() {
+        ProductBundle outer = new ProductBundle("Outer");
+        outer.addItem(new Product("Charger", Money.inr(900)));
+        ProductBundle inner = new ProductBundle("Inner");
+        outer.addItem(inner);
+        Product cable = new Product("Cable", Money.ZERO);
+        inner.addItem(cable);
+
+        Product imported = new Product("Adapter", Money.ofMajor(5, Money.Currency.USD));
+        try {
+            inner.addItem(imported);
+            throw new IllegalStateException("USD item was added to an INR bundle");
+        } catch (ArithmeticException expected) {
+        }
+        try {
+            cable.setCost(Money.ofMajor(3, Money.Currency.USD));
+            throw new IllegalStateException("USD price was accepted in an INR bundle");
+        } catch (ArithmeticException expected) {
+        }
+
+        if (!inner.getCost().equals(Money.ZERO) || inner.getLeafCount() != 1 || imported.getParent() != null
+                || !cable.getCost().equals(Money.ZERO) || !outer.getCost().equals(Money.inr(900)) || outer.getLeafCount() != 2)
+            throw new IllegalStateException("Rejected currency left inner " + inner.getCost() + ", outer " + outer.getCost());
+        System.out.println("Mixed-currency changes are rejected before any subtotal changes");
     }
+
+    /**
+     * Times getCost() on a 100k item bundle against summing the products on every call,
+     * the way the bundle used to.
+     */
+    static void printCostBenchmark() {
+        int items = 100_000;
+        int rounds = 1_000;
+        ProductBundle bundle = new ProductBundle("Big");
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            Product product = new Product("P" + i, Money.inr(i % 500));
+            bundle.addItem(product);
+            products.add(product);
+        }
+
+        long begin = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            products.get(r).setCost(Money.inr(r));   // one price change per re-render
+            blackhole += bundle.getCost().minorUnits();
+        }
+        double cachedMicros = (System.nanoTime() - begin) / 1e3 / rounds;
+
+        begin = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            Money total = Money.ZERO;
+            for (Product product : products)
+                total = total.plus(product.getCost());
+            blackhole += total.minorUnits();
+        }
+        double walkMicros = (System.nanoTime() - begin) / 1e3 / rounds;
+
+        System.out.printf("%,d items: cached getCost %.3f us/call, full walk %.1f us/call%n",
+                items, cachedMicros, walkMicros);
+    }
+
+    // Keeps the JIT from dropping the benchmark loops
+    private static volatile long blackhole;
 }
\ No newline at end of file
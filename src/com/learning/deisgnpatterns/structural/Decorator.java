@@ -1,4 +1,7 @@
 package com.learning.deisgnpatterns.structural;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * DECORATOR DESIGN PATTERN - JAVA IMPLEMENTATION
@@ -10,6 +13,11 @@ package com.learning.deisgnpatterns.structural;
  * Real-World Analogy:
  * Ordering a coffee and optionally adding toppings like milk or sugar.
  * Each add-on "wraps" the original drink and adds its own cost/description.
+ *
+ * A stack of N decorators answers every query with N nested calls and rebuilds the description
+ * on each level. CoffeeRecipe flattens a finished stack into one immutable Coffee with the cost,
+ * description and add-on counts computed once. CoffeePricingEngine caches recipes by base
+ * drink and add-ons, so the same order placed again is priced from the cache.
  */
 
 // Base Component Interface
@@ -54,38 +62,62 @@ abstract class CoffeeDecorator implements Coffee {
     public CoffeeDecorator(Coffee coffee) {
         this.decoratedCoffee = coffee;
     }
-}
 
-// Concrete Decorator - Adds Milk
-class Milk extends CoffeeDecorator {
+    /**
+     * Name this add-on contributes to the description.
+     */
+    public abstract String getAddOnName();
 
     /**
-     * Constructor passes the coffee to be decorated.
+     * Price of this add-on alone.
      */
-    public Milk(Coffee coffee) {
-        super(coffee);
-    }
+    public abstract double getAddOnCost();
 
     /**
-     * Adds "Milk" to the coffee description.
+     * Adds this add-on to the coffee description.
      */
     @Override
     public String getDescription() {
-        return decoratedCoffee.getDescription() + " + Milk";
+        return decoratedCoffee.getDescription() + " + " + getAddOnName();
     }
 
     /**
-     * Adds Rs.5 to the base coffee cost for milk.
+     * Adds this add-on's price to the wrapped coffee cost.
      */
     @Override
     public double getCost() {
-        return decoratedCoffee.getCost() + 5;
+        return decoratedCoffee.getCost() + getAddOnCost();
+    }
+}
+
+// Concrete Decorator - Adds Milk
+class Milk extends CoffeeDecorator {
+
+    static final String NAME = "Milk";
+    static final double COST = 5;  // Rs.5 for milk
+
+    /**
+     * Constructor passes the coffee to be decorated.
+     */
+    public Milk(Coffee coffee) {
+        super(coffee);
+    }
+
+    public String getAddOnName() {
+        return NAME;
+    }
+
+    public double getAddOnCost() {
+        return COST;
     }
 }
 
 // Concrete Decorator - Adds Sugar
 class Sugar extends CoffeeDecorator {
 
+    static final String NAME = "Sugar";
+    static final double COST = 2;  // Rs.2 for sugar
+
     /**
      * Constructor wraps the coffee object.
      */
@@ -93,20 +125,310 @@ class Sugar extends CoffeeDecorator {
         super(coffee);
     }
 
+    public String getAddOnName() {
+        return NAME;
+    }
+
+    public double getAddOnCost() {
+        return COST;
+    }
+}
+
+// Flattened Coffee - a decorator stack compiled into precomputed cost, description and add-on counts.
+// Immutable, so it can be cached and shared between threads.
+final class CoffeeRecipe implements Coffee {
+
+    private final String description;
+    private final double cost;
+    private final Map<String, Integer> addOnCounts;  // in order of first use
+    private final int addOnTotal;
+
+    private CoffeeRecipe(String description, double cost, Map<String, Integer> addOnCounts, int addOnTotal) {
+        this.description = description;
+        this.cost = cost;
+        this.addOnCounts = Collections.unmodifiableMap(addOnCounts);
+        this.addOnTotal = addOnTotal;
+    }
+
     /**
-     * Adds "Sugar" to the coffee description.
+     * Flattens a decorator stack. The result has the same description and cost as the stack.
      */
-    @Override
-    public String getDescription() {
-        return decoratedCoffee.getDescription() + " + Sugar";
+    public static CoffeeRecipe of(Coffee coffee) {
+        if (coffee instanceof CoffeeRecipe)
+            return (CoffeeRecipe) coffee;
+
+        List<CoffeeDecorator> layers = new ArrayList<>();
+        Coffee base = coffee;
+        while (base instanceof CoffeeDecorator) {
+            layers.add((CoffeeDecorator) base);
+            base = ((CoffeeDecorator) base).decoratedCoffee;
+        }
+
+        Builder builder = builder(base);
+        for (int i = layers.size() - 1; i >= 0; i--)  // innermost add-on first, like the stack
+            builder.add(layers.get(i).getAddOnName(), layers.get(i).getAddOnCost());
+        return builder.build();
     }
 
     /**
-     * Adds Rs.2 to the base coffee cost for sugar.
+     * Starts a recipe from a base drink, or from an existing recipe or decorator stack to extend
+     * it; add-ons already in the base keep counting.
      */
-    @Override
+    public static Builder builder(Coffee base) {
+        return new Builder(base instanceof CoffeeDecorator ? of(base) : base);
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
     public double getCost() {
-        return decoratedCoffee.getCost() + 2;
+        return cost;
+    }
+
+    /**
+     * How many times the add-on was applied, e.g. 2 for double sugar.
+     */
+    public int getAddOnCount(String addOnName) {
+        return addOnCounts.getOrDefault(addOnName, 0);
+    }
+
+    public Map<String, Integer> getAddOnCounts() {
+        return addOnCounts;
+    }
+
+    public int getAddOnTotal() {
+        return addOnTotal;
+    }
+
+    // Collects add-ons and builds the description in one pass
+    static final class Builder {
+
+        private final StringBuilder description;
+        private double cost;
+        private final Map<String, Integer> addOnCounts;
+        private int addOnTotal;
+
+        private Builder(Coffee base) {
+            this.description = new StringBuilder(base.getDescription());
+            this.cost = base.getCost();
+            if (base instanceof CoffeeRecipe) {
+                CoffeeRecipe recipe = (CoffeeRecipe) base;
+                this.addOnCounts = new LinkedHashMap<>(recipe.addOnCounts);
+                this.addOnTotal = recipe.addOnTotal;
+            } else {
+                this.addOnCounts = new LinkedHashMap<>();
+            }
+        }
+
+        /**
+         * Adds one portion of an add-on; summed in the same order as the decorator stack would.
+         */
+        public Builder add(String addOnName, double addOnCost) {
+            description.append(" + ").append(addOnName);
+            cost += addOnCost;
+            addOnCounts.merge(addOnName, 1, Integer::sum);
+            addOnTotal++;
+            return this;
+        }
+
+        public Builder milk() {
+            return add(Milk.NAME, Milk.COST);
+        }
+
+        public Builder sugar() {
+            return add(Sugar.NAME, Sugar.COST);
+        }
+
+        public CoffeeRecipe build() {
+            return new CoffeeRecipe(description.toString(), cost, new LinkedHashMap<>(addOnCounts), addOnTotal);
+        }
+    }
+}
+
+// Prices orders through a bounded cache of recipes keyed by base drink and add-ons in stack order,
+// so a cached recipe always has the description its decorator stack prints. Each part of the key
+// carries its class and price as well as its name, so a differently priced drink or add-on with
+// the same name gets its own recipe.
+// The cache is split into segments, each an LRU LinkedHashMap behind its own lock.
+class CoffeePricingEngine {
+
+    private static final int SEGMENTS = 16;
+
+    private List<Map<RecipeKey, CoffeeRecipe>> segments = new ArrayList<>(SEGMENTS);
+    private ForkJoinPool pool;
+    private int batchThreshold;
+    private LongAdder hits = new LongAdder();
+    private LongAdder misses = new LongAdder();
+    private LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an engine caching up to capacity recipes and pricing batches on the pool,
+     * splitting them down to batchThreshold orders per task.
+     */
+    public CoffeePricingEngine(int capacity, ForkJoinPool pool, int batchThreshold) {
+        this.pool = pool;
+        this.batchThreshold = batchThreshold;
+        int perSegment = Math.max(1, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<RecipeKey, CoffeeRecipe> eldest) {
+                    if (size() <= perSegment)
+                        return false;
+                    evictions.increment();
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the cached recipe for the order, flattening it on a miss.
+     */
+    public CoffeeRecipe price(Coffee order) {
+        // Key: the base drink followed by the add-ons, outermost first.
+        // Collected in a single walk, since following the stack is most of the cost.
+        Class<?>[] types = new Class<?>[16];
+        String[] names = new String[16];
+        double[] costs = new double[16];
+        int length = 1;
+        Coffee base = order;
+        while (base instanceof CoffeeDecorator) {
+            if (length == names.length) {
+                types = Arrays.copyOf(types, length * 2);
+                names = Arrays.copyOf(names, length * 2);
+                costs = Arrays.copyOf(costs, length * 2);
+            }
+            CoffeeDecorator layer = (CoffeeDecorator) base;
+            types[length] = layer.getClass();
+            names[length] = layer.getAddOnName();
+            costs[length++] = layer.getAddOnCost();
+            base = layer.decoratedCoffee;
+        }
+        types = Arrays.copyOf(types, length);
+        names = Arrays.copyOf(names, length);
+        costs = Arrays.copyOf(costs, length);
+        types[0] = base.getClass();
+        names[0] = base.getDescription();
+        costs[0] = base.getCost();
+        RecipeKey recipeKey = new RecipeKey(types, names, costs);
+
+        Map<RecipeKey, CoffeeRecipe> segment = segments.get((recipeKey.hashCode() & 0x7fffffff) % SEGMENTS);
+        CoffeeRecipe recipe;
+        synchronized (segment) {
+            recipe = segment.get(recipeKey);
+        }
+        if (recipe != null) {
+            hits.increment();
+            return recipe;
+        }
+
+        // Built outside the lock; two threads missing at once build equal recipes and one wins
+        misses.increment();
+        recipe = CoffeeRecipe.of(order);
+        synchronized (segment) {
+            CoffeeRecipe existing = segment.putIfAbsent(recipeKey, recipe);
+            return existing != null ? existing : recipe;
+        }
+    }
+
+    /**
+     * Prices every order on the pool; result i belongs to order i.
+     */
+    public CoffeeRecipe[] priceBatch(List<? extends Coffee> orders) {
+        CoffeeRecipe[] prices = new CoffeeRecipe[orders.size()];
+        pool.invoke(new BatchTask(orders, prices, 0, orders.size()));
+        return prices;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long lookups = getHits() + getMisses();
+        return lookups == 0 ? 0 : (double) getHits() / lookups;
+    }
+
+    /**
+     * Shuts down the pool used for batches.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    // Class, name and price of the base and of each add-on of a recipe, compared by value
+    private static final class RecipeKey {
+
+        private Class<?>[] types;
+        private String[] names;
+        private double[] costs;
+        private int hash;
+
+        RecipeKey(Class<?>[] types, String[] names, double[] costs) {
+            this.types = types;
+            this.names = names;
+            this.costs = costs;
+            this.hash = (Arrays.hashCode(types) * 31 + Arrays.hashCode(names)) * 31 + Arrays.hashCode(costs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RecipeKey))
+                return false;
+            RecipeKey other = (RecipeKey) o;
+            return hash == other.hash && Arrays.equals(names, other.names) && Arrays.equals(costs, other.costs)
+                    && Arrays.equals(types, other.types);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // Splits a range of orders in half until it is small enough to price directly
+    private class BatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private List<? extends Coffee> orders;
+        private CoffeeRecipe[] prices;
+        private int from;
+        private int to;
+
+        BatchTask(List<? extends Coffee> orders, CoffeeRecipe[] prices, int from, int to) {
+            this.orders = orders;
+            this.prices = prices;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchThreshold) {
+                for (int i = from; i < to; i++)
+                    prices[i] = price(orders.get(i));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask(orders, prices, from, middle), new BatchTask(orders, prices, middle, to));
+        }
     }
 }
 
@@ -118,5 +440,169 @@ public class Decorator {
         Coffee coffee = new Sugar(new Milk(new Espresso()));
 
         System.out.println(coffee.getDescription() + "   " + coffee.getCost());
+
+        // Same order compiled once; queries no longer walk the stack
+        CoffeeRecipe recipe = CoffeeRecipe.of(coffee);
+        System.out.println(recipe.getDescription() + "   " + recipe.getCost() + "   add-ons: " + recipe.getAddOnCounts());
+
+        CoffeeRecipe sweet = CoffeeRecipe.builder(recipe).sugar().sugar().build();
+        System.out.println(sweet.getDescription() + "   " + sweet.getCost() + "   sugar x" + sweet.getAddOnCount("Sugar"));
+
+        // Extending the decorator stack directly gives the same recipe as extending its flattened form
+        CoffeeRecipe fromStack = CoffeeRecipe.builder(coffee).sugar().sugar().build();
+        Coffee stacked = new Sugar(new Sugar(coffee));
+        if (!fromStack.getAddOnCounts().equals(sweet.getAddOnCounts()) || fromStack.getAddOnTotal() != sweet.getAddOnTotal()
+                || fromStack.getCost() != stacked.getCost() || !fromStack.getDescription().equals(stacked.getDescription()))
+            throw new IllegalStateException("Builder from a decorator stack lost its add-ons: " + fromStack.getAddOnCounts());
+
+        checkPricingKeys();
+
+        System.out.println();
+        printQueryBenchmark();
+        printPricingEngineReport();
     }
+
+    /**
+     * Prices drinks that share names with cached ones but not prices: an add-on named "Milk"
+     * that costs more, and a base named "Espresso" from another menu. Each must get its own price.
+     */
+    static void checkPricingKeys() {
+        CoffeePricingEngine engine = new CoffeePricingEngine(16, new ForkJoinPool(1), 16);
+        Coffee doubleShot = new Coffee() {
+            public String getDescription() {
+                return "Espresso";
+            }
+
+            public double getCost() {
+                return 45;
+            }
+        };
+        Coffee[] orders = {
+                new Milk(new Espresso()),
+                new CoffeeDecorator(new Espresso()) {  // oat milk, sold under the same name
+                    public String getAddOnName() {
+                        return Milk.NAME;
+                    }
+
+                    public double getAddOnCost() {
+                        return 8;
+                    }
+                },
+                new Milk(doubleShot)
+        };
+        try {
+            for (Coffee order : orders)
+                if (engine.price(order).getCost() != order.getCost())
+                    throw new IllegalStateException("Charged " + engine.price(order).getCost() + " for "
+                            + order.getDescription() + " costing " + order.getCost());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * Prices 1M orders drawn from a Zipf-skewed menu of 5,000 drinks. Every order is a freshly
+     * built decorator stack, as a till would create it. Times flattening every order against the
+     * engine (cache smaller than the menu) on pools of increasing size; best of three runs.
+     * Checks that the engine's totals and descriptions match the decorator stacks.
+     */
+    static void printPricingEngineReport() {
+        Random random = new Random(17);
+        boolean[][] menu = new boolean[5_000][];  // per drink: add-ons innermost first, true for milk
+        for (int i = 0; i < menu.length; i++) {
+            menu[i] = new boolean[1 + random.nextInt(12)];
+            for (int a = 0; a < menu[i].length; a++)
+                menu[i][a] = random.nextBoolean();
+        }
+
+        // Zipf, exponent 1: the most popular drink is ordered twice as often as the second
+        double[] cumulative = new double[menu.length];
+        double total = 0;
+        for (int rank = 0; rank < menu.length; rank++)
+            cumulative[rank] = total += 1.0 / (rank + 1);
+        List<Coffee> orders = new ArrayList<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            Coffee drink = new Espresso();
+            for (boolean milk : menu[rank < 0 ? -rank - 1 : rank])
+                drink = milk ? new Milk(drink) : new Sugar(drink);
+            orders.add(drink);
+        }
+
+        int maxParallelism = Runtime.getRuntime().availableProcessors();
+        List<CoffeePricingEngine> engines = new ArrayList<>();
+        for (int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2)
+            engines.add(new CoffeePricingEngine(4_096, new ForkJoinPool(parallelism), 4_096));
+        double uncachedMillis = Double.MAX_VALUE;
+        double[] engineMillis = new double[engines.size()];
+        Arrays.fill(engineMillis, Double.MAX_VALUE);
+
+        // Runs alternate so GC and JIT state affect both sides alike
+        for (int round = 0; round < 3; round++) {
+            long begin = System.nanoTime();
+            double expected = 0;
+            for (Coffee order : orders)
+                expected += CoffeeRecipe.of(order).getCost();
+            uncachedMillis = Math.min(uncachedMillis, (System.nanoTime() - begin) / 1e6);
+
+            for (int e = 0; e < engines.size(); e++) {
+                engines.get(e).resetStats();
+                begin = System.nanoTime();
+                CoffeeRecipe[] prices = engines.get(e).priceBatch(orders);
+                engineMillis[e] = Math.min(engineMillis[e], (System.nanoTime() - begin) / 1e6);
+
+                double sum = 0;
+                for (CoffeeRecipe price : prices)
+                    sum += price.getCost();
+                if (sum != expected)
+                    throw new IllegalStateException("Engine total " + sum + " differs from " + expected);
+                for (int i = 0; i < prices.length; i += 997)
+                    if (!prices[i].getDescription().equals(orders.get(i).getDescription()))
+                        throw new IllegalStateException("Cached " + prices[i].getDescription() + " for " + orders.get(i).getDescription());
+            }
+        }
+
+        System.out.println("=== Pricing " + orders.size() + " orders from a menu of " + menu.length + " ===");
+        System.out.printf("flatten every order:   %7.1f ms%n", uncachedMillis);
+        for (int e = 0; e < engines.size(); e++) {
+            CoffeePricingEngine engine = engines.get(e);
+            engine.shutdown();
+            System.out.printf("engine, %2d threads:    %7.1f ms  hit rate %.1f%%, %d evictions%n",
+                    1 << e, engineMillis[e], engine.getHitRate() * 100, engine.getEvictions());
+        }
+    }
+
+    /**
+     * Times getCost() + getDescription() on decorator stacks of 1, 10 and 100 add-ons and on
+     * their flattened recipes, after checking both give the same answers.
+     */
+    static void printQueryBenchmark() {
+        System.out.println("=== Query cost by number of decorators ===");
+        for (int depth : new int[]{1, 10, 100}) {
+            Coffee stack = new Espresso();
+            for (int i = 0; i < depth; i++)
+                stack = i % 2 == 0 ? new Milk(stack) : new Sugar(stack);
+            CoffeeRecipe recipe = CoffeeRecipe.of(stack);
+            if (recipe.getCost() != stack.getCost() || !recipe.getDescription().equals(stack.getDescription()))
+                throw new IllegalStateException("Recipe differs from decorator stack at depth " + depth);
+
+            int queries = 2_000_000 / depth;
+            timeQueries(stack, queries);  // warm up
+            timeQueries(recipe, queries);
+            double stackNanos = timeQueries(stack, queries);
+            double recipeNanos = timeQueries(recipe, queries);
+            System.out.printf("%3d add-ons: decorators %9.1f ns/query, recipe %5.1f ns/query%n", depth, stackNanos, recipeNanos);
+        }
+    }
+
+    private static double timeQueries(Coffee coffee, int queries) {
+        long begin = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < queries; i++)
+            sink += (long) coffee.getCost() + coffee.getDescription().length();
+        blackhole = sink;
+        return (System.nanoTime() - begin) / (double) queries;
+    }
+
+    private static volatile long blackhole;
 }
\ No newline at end of file
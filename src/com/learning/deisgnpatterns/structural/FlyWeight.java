@@ -1,6 +1,13 @@
 package com.learning.deisgnpatterns.structural;
 
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * FLYWEIGHT DESIGN PATTERN - JAVA IMPLEMENTATION
@@ -16,14 +23,31 @@ import java.util.*;
 
 // Flyweight Object (intrinsic shared data)
 class TreeType {
+    private int id;
     private String type;
     private String color;
 
-    public TreeType(String type, String color) {
+    public TreeType(int id, String type, String color) {
+        this.id = id;
         this.type = type;
         this.color = color;
     }
 
+    /**
+     * Position of this flyweight in the TreeFactory pool.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
     /**
      * Shared draw logic. Called by Tree with position parameters.
      */
@@ -32,25 +56,90 @@ class TreeType {
     }
 }
 
-// Flyweight Factory
+// Flyweight Factory - safe to call from many planting threads at once
 class TreeFactory {
 
-    // Key: "type_color", Value: TreeType instance
-    private static Map<String, TreeType> hashTrees = new HashMap<>();
+    // Key: type, then color, Value: TreeType instance (no "type_color" string built per lookup)
+    private static ConcurrentMap<String, ConcurrentMap<String, TreeType>> hashTrees = new ConcurrentHashMap<>();
+
+    // Ids are stored as unsigned shorts by ColumnarForest
+    static final int MAX_TYPES = 1 << 16;
+
+    // Index: TreeType id, Value: TreeType instance (lets callers store a short instead of a reference)
+    private static AtomicReferenceArray<TreeType> pool = new AtomicReferenceArray<>(MAX_TYPES);
+    private static AtomicInteger nextId = new AtomicInteger();
+
+    // Stored in the slot of an id whose TreeType could not be created, so readers stop waiting
+    private static final TreeType ABANDONED = new TreeType(-1, "", "");
 
     /**
      * Reuses TreeType object if available; otherwise creates and stores one.
+     * Lookups of existing types never lock, and each (type, color) pair is created exactly once.
      */
     public static TreeType getTreeType(String type, String color) {
-        String key = type + "_" + color;
+        ConcurrentMap<String, TreeType> byColor = hashTrees.get(type);
+        if (byColor == null)
+            byColor = hashTrees.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
 
-        if (hashTrees.containsKey(key))
-            return hashTrees.get(key);
+        TreeType treeType = byColor.get(color);
+        if (treeType != null)
+            return treeType;
 
-        TreeType treeType = new TreeType(type, color);
-        hashTrees.put(key, treeType);
+        return byColor.computeIfAbsent(color, c -> register(type, c));
+    }
+
+    /**
+     * Returns the shared TreeType registered under the given id.
+     */
+    public static TreeType getTreeType(int id) {
+        TreeType treeType = findTreeType(id);
+        if (treeType == null)
+            throw new IllegalArgumentException("Unknown tree type id: " + id);
         return treeType;
     }
+
+    /**
+     * Like getTreeType(id), but returns null for an id whose TreeType could not be created.
+     */
+    static TreeType findTreeType(int id) {
+        if (id < 0 || id >= nextId.get())
+            throw new IllegalArgumentException("Unknown tree type id: " + id);
+        // The id is taken before the entry is stored; wait out the few instructions in between
+        TreeType treeType;
+        while ((treeType = pool.get(id)) == null)
+            Thread.onSpinWait();
+        return treeType == ABANDONED ? null : treeType;
+    }
+
+    /**
+     * Returns the number of TreeType objects created so far.
+     */
+    public static int size() {
+        return nextId.get();
+    }
+
+    /**
+     * Assigns the next id and publishes the new TreeType in the pool.
+     * Runs inside computeIfAbsent, so it is called once per (type, color).
+     */
+    private static TreeType register(String type, String color) {
+        // Only ids below MAX_TYPES are ever handed out, so no reader sees one past the limit
+        int id;
+        do {
+            id = nextId.get();
+            if (id >= MAX_TYPES)
+                throw new IllegalStateException("Too many tree types: " + MAX_TYPES);
+        } while (!nextId.compareAndSet(id, id + 1));
+
+        try {
+            TreeType treeType = new TreeType(id, type, color);
+            pool.set(id, treeType);
+            return treeType;
+        } catch (RuntimeException | Error e) {
+            pool.set(id, ABANDONED);
+            throw e;
+        }
+    }
 }
 
 // Context Object - Contains extrinsic data (x, y)
@@ -65,6 +154,14 @@ class Tree {
         this.treeType = treeType;
     }
 
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
     /**
      * Delegates drawing to shared TreeType with its unique coordinates.
      */
@@ -73,20 +170,133 @@ class Tree {
     }
 }
 
+// Axis-aligned region of the map, e.g. the visible viewport. Right and bottom edges are exclusive.
+class Rect {
+    final int x;
+    final int y;
+    final int width;
+    final int height;
+
+    public Rect(int x, int y, int width, int height) {
+        if (width < 0 || height < 0)
+            throw new IllegalArgumentException("Negative size: " + width + "x" + height);
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Checks whether the point lies inside this rectangle.
+     */
+    public boolean contains(int px, int py) {
+        return px >= x && py >= y && (long) px < (long) x + width && (long) py < (long) y + height;
+    }
+}
+
+// Spatial index - buckets tree indices into square grid cells so a viewport only visits nearby trees
+class SpatialGrid {
+
+    // Receives the index of every tree inside the queried rectangle
+    interface Visitor {
+        void visit(int index);
+    }
+
+    // Growable int list holding the tree indices of one cell
+    private static class Bucket {
+        int[] indices = new int[4];
+        int size;
+
+        void add(int index) {
+            if (size == indices.length)
+                indices = Arrays.copyOf(indices, size * 2);
+            indices[size++] = index;
+        }
+    }
+
+    private int cellSize;
+    private Map<Long, Bucket> cells;
+
+    public SpatialGrid(int cellSize) {
+        if (cellSize <= 0)
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        this.cellSize = cellSize;
+        this.cells = new HashMap<>();
+    }
+
+    /**
+     * Records that the tree with the given index stands at (x, y).
+     */
+    public void add(int index, int x, int y) {
+        cells.computeIfAbsent(cellKey(Math.floorDiv(x, cellSize), Math.floorDiv(y, cellSize)), k -> new Bucket())
+                .add(index);
+    }
+
+    /**
+     * Visits the index of every candidate tree in the cells overlapping the rectangle.
+     * Cells on the border may hold trees just outside it, so callers still check Rect.contains.
+     */
+    public void query(Rect rect, Visitor visitor) {
+        if (rect.width == 0 || rect.height == 0)
+            return;
+
+        long minCellX = Math.floorDiv(rect.x, cellSize);
+        long minCellY = Math.floorDiv(rect.y, cellSize);
+        long maxCellX = Math.floorDiv((long) rect.x + rect.width - 1, cellSize);
+        long maxCellY = Math.floorDiv((long) rect.y + rect.height - 1, cellSize);
+
+        // A huge viewport covers more cells than exist, so walk the occupied cells instead
+        if ((maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > cells.size()) {
+            for (Bucket bucket : cells.values())
+                visitAll(bucket, visitor);
+            return;
+        }
+
+        for (long cx = minCellX; cx <= maxCellX; cx++) {
+            for (long cy = minCellY; cy <= maxCellY; cy++) {
+                Bucket bucket = cells.get(cellKey(cx, cy));
+                if (bucket != null)
+                    visitAll(bucket, visitor);
+            }
+        }
+    }
+
+    private static void visitAll(Bucket bucket, Visitor visitor) {
+        for (int i = 0; i < bucket.size; i++)
+            visitor.visit(bucket.indices[i]);
+    }
+
+    private static long cellKey(long cellX, long cellY) {
+        return (cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+}
+
 // Client - Manages large number of trees
 class Forest {
     List<Tree> trees;
+    private SpatialGrid grid;  // null when no spatial index was requested
 
     public Forest() {
         trees = new ArrayList<>();
     }
 
+    /**
+     * Creates a forest that also indexes trees in a grid of the given cell size,
+     * so draw(Rect) and query(Rect) only touch trees near the viewport.
+     */
+    public Forest(int cellSize) {
+        this();
+        grid = new SpatialGrid(cellSize);
+    }
+
     /**
      * Plants a tree using shared TreeType objects to save memory.
      */
     public void plantTree(int x, int y, String type, String color) {
         TreeType sharedType = TreeFactory.getTreeType(type, color);
         Tree tree = new Tree(x, y, sharedType);
+        if (grid != null)
+            grid.add(trees.size(), x, y);
         trees.add(tree);
     }
 
@@ -97,11 +307,629 @@ class Forest {
         for (Tree t : trees)
             t.draw();
     }
+
+    /**
+     * Draws only the trees inside the viewport.
+     */
+    public void draw(Rect viewport) {
+        for (Tree t : query(viewport))
+            t.draw();
+    }
+
+    /**
+     * Returns the trees inside the rectangle.
+     */
+    public List<Tree> query(Rect rect) {
+        List<Tree> result = new ArrayList<>();
+        if (grid == null) {
+            for (Tree t : trees)
+                if (rect.contains(t.getX(), t.getY()))
+                    result.add(t);
+            return result;
+        }
+
+        grid.query(rect, i -> {
+            Tree t = trees.get(i);
+            if (rect.contains(t.getX(), t.getY()))
+                result.add(t);
+        });
+        return result;
+    }
+}
+
+// Client - Same API as Forest, but stores extrinsic data column by column.
+// Each tree costs 4 (x) + 4 (y) + 2 (type id) = 10 bytes instead of a Tree object plus a list slot.
+class ColumnarForest {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] xs;
+    private int[] ys;
+    private short[] typeIds;   // index into TreeFactory pool, read as unsigned
+    private int size;
+    private SpatialGrid grid;  // null when no spatial index was requested
+
+    public ColumnarForest() {
+        xs = new int[INITIAL_CAPACITY];
+        ys = new int[INITIAL_CAPACITY];
+        typeIds = new short[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates a forest that also indexes trees in a grid of the given cell size
+     * (about 4 extra bytes per tree), so draw(Rect) and query(Rect) skip far away trees.
+     */
+    public ColumnarForest(int cellSize) {
+        this();
+        grid = new SpatialGrid(cellSize);
+    }
+
+    /**
+     * Plants a tree by appending its coordinates and shared type id to the columns.
+     */
+    public void plantTree(int x, int y, String type, String color) {
+        TreeType sharedType = TreeFactory.getTreeType(type, color);
+        if (size == xs.length)
+            grow();
+
+        xs[size] = x;
+        ys[size] = y;
+        typeIds[size] = (short) sharedType.getId();
+        if (grid != null)
+            grid.add(size, x, y);
+        size++;
+    }
+
+    /**
+     * Draws all trees with a linear scan over the columns.
+     */
+    public void draw() {
+        for (int i = 0; i < size; i++)
+            getTreeType(i).draw(xs[i], ys[i]);
+    }
+
+    /**
+     * Draws only the trees inside the viewport.
+     */
+    public void draw(Rect viewport) {
+        for (int i : query(viewport))
+            getTreeType(i).draw(xs[i], ys[i]);
+    }
+
+    /**
+     * Returns the indices of the trees inside the rectangle, for use with getX/getY/getTreeType.
+     */
+    public int[] query(Rect rect) {
+        int[][] result = { new int[16] };
+        int[] count = { 0 };
+        SpatialGrid.Visitor collect = i -> {
+            if (!rect.contains(xs[i], ys[i]))
+                return;
+            if (count[0] == result[0].length)
+                result[0] = Arrays.copyOf(result[0], count[0] * 2);
+            result[0][count[0]++] = i;
+        };
+
+        if (grid == null) {
+            for (int i = 0; i < size; i++)
+                collect.visit(i);
+        } else {
+            grid.query(rect, collect);
+        }
+        return Arrays.copyOf(result[0], count[0]);
+    }
+
+    /**
+     * Returns the number of planted trees.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the forest to a snapshot file that ForestSnapshot.open() can map back in.
+     */
+    public void save(Path path) throws IOException {
+        ForestSnapshot.write(this, path);
+    }
+
+    public int getX(int index) {
+        return xs[index];
+    }
+
+    public int getY(int index) {
+        return ys[index];
+    }
+
+    public int getTypeId(int index) {
+        return Short.toUnsignedInt(typeIds[index]);
+    }
+
+    public TreeType getTreeType(int index) {
+        return TreeFactory.getTreeType(getTypeId(index));
+    }
+
+    /**
+     * Grows every column by 1.5x, keeping them the same length.
+     */
+    private void grow() {
+        if (xs.length == Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Forest is full: " + size + " trees");
+
+        int newCapacity = (int) Math.min(Integer.MAX_VALUE - 8, xs.length + (long) (xs.length >> 1));
+        xs = Arrays.copyOf(xs, newCapacity);
+        ys = Arrays.copyOf(ys, newCapacity);
+        typeIds = Arrays.copyOf(typeIds, newCapacity);
+    }
+}
+
+// Destination for rendered batches of text
+interface RenderSink extends Closeable {
+
+    /**
+     * Writes the remaining bytes of the batch.
+     */
+    void write(ByteBuffer batch) throws IOException;
+
+    /**
+     * Sink writing to System.out. Closing it only flushes; standard output stays open.
+     */
+    static RenderSink stdout() {
+        return new StreamSink(System.out);
+    }
+
+    /**
+     * Sink writing to a file, replacing any existing content.
+     */
+    static RenderSink file(Path path) throws IOException {
+        return new ChannelSink(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+}
+
+// Sink backed by any byte channel (stdout, file, in-memory stream)
+class ChannelSink implements RenderSink {
+
+    private WritableByteChannel channel;
+
+    public ChannelSink(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    public void write(ByteBuffer batch) throws IOException {
+        while (batch.hasRemaining())
+            channel.write(batch);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+// Sink writing to an output stream owned by the caller, which close() flushes but never closes
+class StreamSink implements RenderSink {
+
+    private OutputStream out;
+
+    public StreamSink(OutputStream out) {
+        this.out = out;
+    }
+
+    public void write(ByteBuffer batch) throws IOException {
+        if (batch.hasArray()) {
+            out.write(batch.array(), batch.arrayOffset() + batch.position(), batch.remaining());
+            batch.position(batch.limit());
+        } else {
+            byte[] bytes = new byte[batch.remaining()];
+            batch.get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    public void close() throws IOException {
+        out.flush();
+    }
+}
+
+// Sink that drops everything and only counts bytes, for benchmarks
+class NullSink implements RenderSink {
+
+    private long bytes;
+
+    public void write(ByteBuffer batch) {
+        bytes += batch.remaining();
+        batch.position(batch.limit());
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void close() {
+    }
+}
+
+// Formats trees in parallel chunks and writes them to a sink.
+// TreeType.draw() prints one line per tree through System.out, which is synchronized and allocates
+// a String per tree. The renderer formats chunks of the forest into reusable byte buffers on a
+// fork-join pool and hands whole chunks to a RenderSink. The text is identical to Forest.draw().
+class ForestRenderer {
+
+    private static final byte[] PREFIX = "Drawing tree at (".getBytes(StandardCharsets.UTF_8);
+    // "-2147483648" is the longest int
+    private static final int MAX_INT_BYTES = 11;
+
+    private ForkJoinPool pool;
+    private int chunkSize;
+    private ByteBuffer[] slots;  // one reusable buffer per chunk of a wave
+
+    public ForestRenderer(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.slots = new ByteBuffer[pool.getParallelism() * 4];
+    }
+
+    /**
+     * Renders every tree of the forest into the sink.
+     * When ordered is true, chunks reach the sink in planting order; otherwise each chunk is
+     * written as soon as it is formatted, which avoids waiting on the slowest chunk of a wave.
+     */
+    public synchronized void render(ColumnarForest forest, RenderSink sink, boolean ordered) throws IOException {
+        byte[][] suffixes = typeSuffixes();
+        int chunks = (int) ((forest.size() + (long) chunkSize - 1) / chunkSize);
+
+        // Chunks are processed in waves so the buffers are reused instead of holding the whole output
+        for (int first = 0; first < chunks; first += slots.length) {
+            int last = Math.min(chunks, first + slots.length);
+            try {
+                pool.invoke(new FormatTask(forest, suffixes, first, first, last, ordered ? null : sink));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            if (ordered) {
+                for (int chunk = first; chunk < last; chunk++)
+                    sink.write(slots[chunk - first]);
+            }
+        }
+    }
+
+    /**
+     * Builds " | type: T | color: C" and the line separator once per TreeType id.
+     */
+    private static byte[][] typeSuffixes() {
+        byte[][] suffixes = new byte[TreeFactory.size()][];
+        for (int id = 0; id < suffixes.length; id++) {
+            TreeType treeType = TreeFactory.findTreeType(id);
+            if (treeType == null)
+                continue;  // no tree can have an abandoned id
+            suffixes[id] = (") | type: " + treeType.getType() + " | color: " + treeType.getColor() + System.lineSeparator())
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        return suffixes;
+    }
+
+    // Splits a wave of chunks in half until a single chunk is left, then formats it
+    private class FormatTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private ColumnarForest forest;
+        private byte[][] suffixes;
+        private int waveStart;
+        private int from;
+        private int to;
+        private RenderSink sink;  // null in ordered mode
+
+        FormatTask(ColumnarForest forest, byte[][] suffixes, int waveStart, int from, int to, RenderSink sink) {
+            this.forest = forest;
+            this.suffixes = suffixes;
+            this.waveStart = waveStart;
+            this.from = from;
+            this.to = to;
+            this.sink = sink;
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FormatTask(forest, suffixes, waveStart, from, mid, sink),
+                        new FormatTask(forest, suffixes, waveStart, mid, to, sink));
+                return;
+            }
+
+            ByteBuffer buffer = format(from, from - waveStart);
+            if (sink != null) {
+                try {
+                    synchronized (sink) {
+                        sink.write(buffer);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Formats one chunk into its slot buffer and returns it ready for reading.
+         */
+        private ByteBuffer format(int chunk, int slot) {
+            int start = chunk * chunkSize;
+            int end = (int) Math.min(forest.size(), (long) start + chunkSize);
+
+            int maxSuffix = 0;
+            for (byte[] suffix : suffixes)
+                maxSuffix = Math.max(maxSuffix, suffix.length);
+            int maxLine = PREFIX.length + MAX_INT_BYTES + 1 + MAX_INT_BYTES + maxSuffix;
+
+            ByteBuffer buffer = slots[slot];
+            long needed = (long) (end - start) * maxLine;
+            if (buffer == null || buffer.capacity() < needed) {
+                buffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, needed));
+                slots[slot] = buffer;
+            }
+
+            buffer.clear();
+            for (int i = start; i < end; i++) {
+                buffer.put(PREFIX);
+                putInt(buffer, forest.getX(i));
+                buffer.put((byte) ',');
+                putInt(buffer, forest.getY(i));
+                buffer.put(suffixes[forest.getTypeId(i)]);
+            }
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Writes the decimal digits of the value without creating a String.
+     */
+    private static void putInt(ByteBuffer buffer, int value) {
+        long v = value;
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10)
+            digits++;
+
+        int end = buffer.position() + digits;
+        for (int p = end - 1; p >= end - digits; p--) {
+            buffer.put(p, (byte) ('0' + v % 10));
+            v /= 10;
+        }
+        buffer.position(end);
+    }
+}
+
+// Binary snapshot of a ColumnarForest.
+// Layout (little endian):
+//   header      magic, version, tree count, type count, data offset
+//   dictionary  (type, color) of every TreeType used, as length-prefixed UTF-8 strings
+//   data        all x values, then all y values, then all type ids (unsigned shorts),
+//               starting at an 8 byte aligned offset
+// Reopening maps the three columns read-only, so trees are paged in lazily by the OS
+// and nothing is copied onto the heap until a tree is actually read.
+class ForestSnapshot {
+
+    private static final int MAGIC = 0x54535246;  // "FRST"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+    // Each column is mapped separately and a mapping is limited to 2 GB
+    static final int MAX_TREES = Integer.MAX_VALUE / Integer.BYTES;
+
+    private int size;
+    private IntBuffer xs;
+    private IntBuffer ys;
+    private ShortBuffer typeIds;
+    private TreeType[] types;  // dictionary index -> shared flyweight
+
+    private ForestSnapshot(int size, IntBuffer xs, IntBuffer ys, ShortBuffer typeIds, TreeType[] types) {
+        this.size = size;
+        this.xs = xs;
+        this.ys = ys;
+        this.typeIds = typeIds;
+        this.types = types;
+    }
+
+    /**
+     * Writes the forest to the path. The file is written next to the target and moved into
+     * place once fully synced, so a crash never leaves a half-written snapshot behind.
+     */
+    public static void write(ColumnarForest forest, Path path) throws IOException {
+        int size = forest.size();
+        if (size > MAX_TREES)
+            throw new IllegalArgumentException("Too many trees for a snapshot: " + size);
+
+        // Only the types this forest uses go into the dictionary, renumbered densely
+        int[] localIds = new int[TreeFactory.size()];
+        Arrays.fill(localIds, -1);
+        List<TreeType> dictionary = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int id = forest.getTypeId(i);
+            if (localIds[id] < 0) {
+                localIds[id] = dictionary.size();
+                dictionary.add(TreeFactory.getTreeType(id));
+            }
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            writeData(forest, temp, localIds, dictionary);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // Gone after a successful move; removes the partial file if writing failed
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeData(ColumnarForest forest, Path temp, int[] localIds, List<TreeType> dictionary)
+            throws IOException {
+        int size = forest.size();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            byte[][] strings = new byte[dictionary.size() * 2][];
+            long dictionaryBytes = 0;
+            for (int t = 0; t < dictionary.size(); t++) {
+                strings[2 * t] = dictionary.get(t).getType().getBytes(StandardCharsets.UTF_8);
+                strings[2 * t + 1] = dictionary.get(t).getColor().getBytes(StandardCharsets.UTF_8);
+                dictionaryBytes += 4 + strings[2 * t].length + 4 + strings[2 * t + 1].length;
+            }
+            long dataOffset = (HEADER_BYTES + dictionaryBytes + 7) & ~7L;
+
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(dictionary.size()).putLong(dataOffset);
+            for (byte[] string : strings) {
+                ensureRoom(channel, buffer, 4 + string.length);
+                buffer.putInt(string.length).put(string);
+            }
+            while (channel.position() + buffer.position() < dataOffset) {
+                ensureRoom(channel, buffer, 1);
+                buffer.put((byte) 0);
+            }
+
+            for (int i = 0; i < size; i++) {
+                ensureRoom(channel, buffer, Integer.BYTES);
+                buffer.putInt(forest.getX(i));
+            }
+            for (int i = 0; i < size; i++) {
+                ensureRoom(channel, buffer, Integer.BYTES);
+                buffer.putInt(forest.getY(i));
+            }
+            for (int i = 0; i < size; i++) {
+                ensureRoom(channel, buffer, Short.BYTES);
+                buffer.putShort((short) localIds[forest.getTypeId(i)]);
+            }
+            flush(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Maps a snapshot written by write(). Only the header and dictionary are read eagerly.
+     */
+    public static ForestSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not a forest snapshot: " + path);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version + ": " + path);
+            int size = header.getInt();
+            int typeCount = header.getInt();
+            long dataOffset = header.getLong();
+
+            long expectedLength = dataOffset + (long) size * (Integer.BYTES * 2 + Short.BYTES);
+            if (size < 0 || size > MAX_TREES || typeCount < 0 || dataOffset < HEADER_BYTES
+                    || dataOffset - HEADER_BYTES > Integer.MAX_VALUE || channel.size() < expectedLength)
+                throw new IOException("Truncated or corrupt forest snapshot: " + path);
+
+            ByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, dataOffset - HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            TreeType[] types = new TreeType[typeCount];
+            for (int t = 0; t < typeCount; t++)
+                types[t] = TreeFactory.getTreeType(readString(dictionary), readString(dictionary));
+
+            long columnBytes = (long) size * Integer.BYTES;
+            IntBuffer xs = map(channel, dataOffset, columnBytes).asIntBuffer();
+            IntBuffer ys = map(channel, dataOffset + columnBytes, columnBytes).asIntBuffer();
+            ShortBuffer typeIds = map(channel, dataOffset + 2 * columnBytes, (long) size * Short.BYTES)
+                    .asShortBuffer();
+            return new ForestSnapshot(size, xs, ys, typeIds, types);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getX(int index) {
+        return xs.get(index);
+    }
+
+    public int getY(int index) {
+        return ys.get(index);
+    }
+
+    public TreeType getTreeType(int index) {
+        return types[Short.toUnsignedInt(typeIds.get(index))];
+    }
+
+    /**
+     * Draws all trees straight from the mapped file.
+     */
+    public void draw() {
+        for (int i = 0; i < size; i++)
+            getTreeType(i).draw(getX(i), getY(i));
+    }
+
+    /**
+     * Copies the snapshot into a ColumnarForest that can be planted into again.
+     */
+    public ColumnarForest toForest() {
+        ColumnarForest forest = new ColumnarForest();
+        for (int i = 0; i < size; i++) {
+            TreeType treeType = getTreeType(i);
+            forest.plantTree(getX(i), getY(i), treeType.getType(), treeType.getColor());
+        }
+        return forest;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < Integer.BYTES)
+            throw new IOException("Truncated dictionary");
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+            throw new IOException("Corrupt dictionary entry");
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new IOException("Unexpected end of snapshot");
+        }
+        buffer.flip();
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            flush(channel, buffer);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
 }
 
 // Main class
 public class FlyWeight {
-    public static void main(String[] args) {
+
+    // Tree object: 12 byte header + int x + int y + TreeType reference (compressed oops)
+    private static final long TREE_OBJECT_BYTES = 24;
+    // ArrayList slot holding the Tree reference
+    private static final long LIST_SLOT_BYTES = 4;
+    // int x + int y + short type id
+    private static final long COLUMNAR_BYTES = 10;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
 
         Forest amazon = new Forest();
 
@@ -110,5 +938,321 @@ public class FlyWeight {
             amazon.plantTree(i, i, "Bamboo", "Green");
 
         amazon.draw();
+
+        System.out.println();
+        printFootprintReport();
+
+        System.out.println();
+        printFactoryThroughputReport();
+
+        System.out.println();
+        printViewportQueryReport();
+
+        System.out.println();
+        printRenderThroughputReport();
+
+        System.out.println();
+        printSnapshotLoadReport();
+    }
+
+    /**
+     * Compares the memory needed per tree by Forest (object mode) and ColumnarForest.
+     * Large sizes are estimated from the per-tree layout; 1M trees is also measured on the live heap.
+     */
+    static void printFootprintReport() {
+        System.out.println("=== Forest memory footprint (estimated) ===");
+        System.out.printf("%12s %14s %14s%n", "trees", "object mode", "columnar");
+        for (long trees : new long[] { 1_000_000, 10_000_000, 50_000_000 }) {
+            long objectBytes = trees * (TREE_OBJECT_BYTES + LIST_SLOT_BYTES);
+            long columnarBytes = trees * COLUMNAR_BYTES;
+            System.out.printf("%,12d %11.1f MB %11.1f MB%n", trees, objectBytes / 1e6, columnarBytes / 1e6);
+        }
+
+        int trees = 1_000_000;
+        long before = usedHeap();
+        Forest forest = new Forest();
+        for (int i = 0; i < trees; i++)
+            forest.plantTree(i, i, "Oak", "Green");
+        long objectBytes = usedHeap() - before;
+
+        before = usedHeap();
+        ColumnarForest columnar = new ColumnarForest();
+        for (int i = 0; i < trees; i++)
+            columnar.plantTree(i, i, "Oak", "Green");
+        long columnarBytes = usedHeap() - before;
+
+        System.out.println("=== Measured at " + trees + " trees ===");
+        System.out.printf("object mode: %.1f MB (%d trees), columnar: %.1f MB (%d trees)%n",
+                objectBytes / 1e6, forest.trees.size(), columnarBytes / 1e6, columnar.size());
+    }
+
+    /**
+     * Hammers TreeFactory from 1, 8 and 32 threads, checking that every thread sees the same
+     * flyweight per (type, color), and compares lookups/sec with a synchronized "type_color" map.
+     * Each pass uses colors no earlier pass has created, so its threads race to create them.
+     */
+    static void printFactoryThroughputReport() throws InterruptedException {
+        String[] types = { "Pine", "Birch", "Maple", "Cedar" };
+        String[] baseColors = { "Green", "Red", "Yellow", "Brown", "Orange", "Olive", "Teal", "Lime" };
+        int lookupsPerThread = 2_000_000;
+
+        Map<String, TreeType> legacy = new HashMap<>();
+
+        System.out.println("=== TreeFactory lookups/sec ===");
+        System.out.printf("%8s %16s %16s%n", "threads", "TreeFactory", "synchronized map");
+        for (int threads : new int[] { 1, 8, 32 }) {
+            String[] colors = new String[baseColors.length];
+            for (int c = 0; c < colors.length; c++)
+                colors[c] = baseColors[c] + " " + threads;
+            TreeType[][] seen = new TreeType[threads][types.length * colors.length];
+            int typesBefore = TreeFactory.size();
+
+            double factoryRate = runThreads(threads, lookupsPerThread, (thread, i) -> {
+                int slot = i % seen[thread].length;
+                TreeType treeType = TreeFactory.getTreeType(types[slot / colors.length], colors[slot % colors.length]);
+                seen[thread][slot] = treeType;
+            });
+
+            double legacyRate = runThreads(threads, lookupsPerThread, (thread, i) -> {
+                int slot = i % seen[thread].length;
+                String type = types[slot / colors.length];
+                String color = colors[slot % colors.length];
+                synchronized (legacy) {
+                    legacy.computeIfAbsent(type + "_" + color, k -> new TreeType(-1, type, color));
+                }
+            });
+
+            for (int t = 1; t < threads; t++)
+                for (int slot = 0; slot < seen[t].length; slot++)
+                    if (seen[t][slot] != seen[0][slot])
+                        throw new IllegalStateException("Two flyweights created for slot " + slot);
+            if (TreeFactory.size() - typesBefore != types.length * colors.length)
+                throw new IllegalStateException("Expected one new flyweight per key, got " + (TreeFactory.size() - typesBefore));
+            for (TreeType treeType : seen[0])
+                if (TreeFactory.getTreeType(treeType.getId()) != treeType)
+                    throw new IllegalStateException("Id lookup returned another flyweight for " + treeType.getId());
+
+            System.out.printf("%8d %16.0f %16.0f%n", threads, factoryRate, legacyRate);
+        }
+    }
+
+    /**
+     * Measures query(Rect) latency on an indexed ColumnarForest for different forest and viewport
+     * sizes, next to a full scan of the same forest without an index.
+     */
+    static void printViewportQueryReport() {
+        int mapSize = 100_000;
+        int queries = 200;
+        Random random = new Random(42);
+
+        System.out.println("=== Viewport query latency (us/query) ===");
+        System.out.printf("%12s %10s %12s %12s %10s%n", "trees", "viewport", "indexed", "full scan", "visible");
+        for (int trees : new int[] { 100_000, 1_000_000, 5_000_000 }) {
+            ColumnarForest indexed = new ColumnarForest(256);
+            ColumnarForest unindexed = new ColumnarForest();
+            for (int i = 0; i < trees; i++) {
+                int x = random.nextInt(mapSize);
+                int y = random.nextInt(mapSize);
+                indexed.plantTree(x, y, "Oak", "Green");
+                unindexed.plantTree(x, y, "Oak", "Green");
+            }
+
+            for (int viewport : new int[] { 1_000, 10_000 }) {
+                Rect[] views = new Rect[queries];
+                for (int q = 0; q < queries; q++)
+                    views[q] = new Rect(random.nextInt(mapSize - viewport), random.nextInt(mapSize - viewport),
+                            viewport, viewport);
+
+                long visible = 0;
+                long begin = System.nanoTime();
+                for (Rect view : views)
+                    visible += indexed.query(view).length;
+                double indexedMicros = (System.nanoTime() - begin) / 1e3 / queries;
+
+                begin = System.nanoTime();
+                for (int q = 0; q < queries / 10; q++)
+                    unindexed.query(views[q]);
+                double scanMicros = (System.nanoTime() - begin) / 1e3 / (queries / 10);
+
+                System.out.printf("%,12d %10s %12.1f %12.1f %10d%n", trees, viewport + "^2", indexedMicros,
+                        scanMicros, visible / queries);
+            }
+        }
+    }
+
+    /**
+     * Compares trees/sec of Forest.draw() (output discarded) with the ForestRenderer pipeline,
+     * after checking that ordered rendering produces exactly the text Forest.draw() prints.
+     */
+    static void printRenderThroughputReport() throws IOException {
+        Forest sample = new Forest();
+        ColumnarForest columnarSample = new ColumnarForest();
+        for (int i = -500; i < 500; i++) {
+            String type = i % 3 == 0 ? "Pine" : "Maple";
+            sample.plantTree(i * 7, -i, type, "Green");
+            columnarSample.plantTree(i * 7, -i, type, "Green");
+        }
+
+        ForestRenderer renderer = new ForestRenderer(ForkJoinPool.commonPool(), 64);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(expected, true));
+        try {
+            sample.draw();
+        } finally {
+            System.setOut(stdout);
+        }
+        renderer.render(columnarSample, new ChannelSink(Channels.newChannel(actual)), true);
+        if (!Arrays.equals(expected.toByteArray(), actual.toByteArray()))
+            throw new IllegalStateException("Ordered render differs from Forest.draw()");
+
+        int trees = 2_000_000;
+        Forest forest = new Forest();
+        ColumnarForest columnar = new ColumnarForest();
+        for (int i = 0; i < trees; i++) {
+            forest.plantTree(i, trees - i, "Oak", "Green");
+            columnar.plantTree(i, trees - i, "Oak", "Green");
+        }
+
+        long begin = System.nanoTime();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            forest.draw();
+        } finally {
+            System.setOut(stdout);
+        }
+        double legacyRate = trees / ((System.nanoTime() - begin) / 1e9);
+
+        renderer = new ForestRenderer(ForkJoinPool.commonPool(), 16_384);
+        begin = System.nanoTime();
+        renderer.render(columnar, new NullSink(), true);
+        double orderedRate = trees / ((System.nanoTime() - begin) / 1e9);
+
+        begin = System.nanoTime();
+        renderer.render(columnar, new NullSink(), false);
+        double unorderedRate = trees / ((System.nanoTime() - begin) / 1e9);
+
+        Path file = Files.createTempFile("forest", ".txt");
+        try (RenderSink sink = RenderSink.file(file)) {
+            begin = System.nanoTime();
+            renderer.render(columnar, sink, true);
+        }
+        double fileRate = trees / ((System.nanoTime() - begin) / 1e9);
+        Files.delete(file);
+
+        System.out.println("=== Render throughput at " + trees + " trees (trees/sec) ===");
+        System.out.printf("Forest.draw (discarded): %,14.0f%n", legacyRate);
+        System.out.printf("pipeline ordered, null:  %,14.0f%n", orderedRate);
+        System.out.printf("pipeline unordered, null:%,14.0f%n", unorderedRate);
+        System.out.printf("pipeline ordered, file:  %,14.0f%n", fileRate);
+    }
+
+    /**
+     * Round-trips a forest through a snapshot file, then compares the time to replant a large
+     * forest with the time to reopen its snapshot (and to read every tree from the mapping).
+     */
+    static void printSnapshotLoadReport() throws IOException {
+        Path file = Files.createTempFile("forest", ".snapshot");
+        try {
+            ColumnarForest sample = new ColumnarForest();
+            String[] types = { "Pine", "Maple", "Cherry Blossom" };
+            for (int i = -1000; i < 1000; i++)
+                sample.plantTree(i * 31, Integer.MAX_VALUE - i, types[Math.floorMod(i, 3)], i < 0 ? "Green" : "Pink");
+            sample.save(file);
+
+            ForestSnapshot reopened = ForestSnapshot.open(file);
+            if (reopened.size() != sample.size())
+                throw new IllegalStateException("Snapshot lost trees");
+            for (int i = 0; i < sample.size(); i++)
+                if (reopened.getX(i) != sample.getX(i) || reopened.getY(i) != sample.getY(i)
+                        || reopened.getTreeType(i) != sample.getTreeType(i))
+                    throw new IllegalStateException("Snapshot differs at tree " + i);
+            ColumnarForest copy = reopened.toForest();
+            if (copy.size() != sample.size() || copy.getTreeType(7) != sample.getTreeType(7))
+                throw new IllegalStateException("Snapshot copy differs");
+
+            // Corrupt headers must be reported as IOException, never as a runtime exception
+            byte[] valid = Files.readAllBytes(file);
+            ByteBuffer oversized = ByteBuffer.wrap(valid.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            oversized.putInt(8, ForestSnapshot.MAX_TREES + 1);
+            ByteBuffer runaway = ByteBuffer.wrap(valid.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            runaway.putInt(12, 1_000);  // more dictionary entries than the file holds
+            for (ByteBuffer corrupt : new ByteBuffer[] { oversized, runaway }) {
+                Files.write(file, corrupt.array());
+                try {
+                    ForestSnapshot.open(file);
+                    throw new IllegalStateException("Corrupt snapshot was accepted");
+                } catch (IOException expected) {
+                    // rejected as it should be
+                }
+            }
+
+            int trees = 5_000_000;
+            long begin = System.nanoTime();
+            ColumnarForest forest = new ColumnarForest();
+            for (int i = 0; i < trees; i++)
+                forest.plantTree(i, -i, types[i % 3], "Green");
+            double replantMillis = (System.nanoTime() - begin) / 1e6;
+
+            forest.save(file);
+            begin = System.nanoTime();
+            ForestSnapshot snapshot = ForestSnapshot.open(file);
+            double openMillis = (System.nanoTime() - begin) / 1e6;
+
+            long checksum = 0;
+            for (int i = 0; i < snapshot.size(); i++)
+                checksum += snapshot.getX(i) + snapshot.getY(i) + snapshot.getTreeType(i).getId();
+            double scanMillis = (System.nanoTime() - begin) / 1e6;
+
+            System.out.println("=== Snapshot load at " + trees + " trees (" + Files.size(file) / 1_000_000 + " MB) ===");
+            System.out.printf("replant:             %8.1f ms%n", replantMillis);
+            System.out.printf("open snapshot:       %8.1f ms%n", openMillis);
+            System.out.printf("open + read all:     %8.1f ms (checksum %d)%n", scanMillis, checksum);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // One unit of benchmark work: (thread index, iteration)
+    private interface Lookup {
+        void run(int thread, int iteration);
+    }
+
+    /**
+     * Runs the lookup on every thread at once and returns total lookups per second.
+     */
+    private static double runThreads(int threads, int iterations, Lookup lookup) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < iterations; i++)
+                    lookup.run(thread, i);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        long elapsed = System.nanoTime() - begin;
+
+        return (double) threads * iterations / (elapsed / 1e9);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
     }
 }
@@ -1,23 +1,74 @@
 package com.learning.deisgnpatterns.structural;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Base class for the subsystems.
+ * Every operation takes stepMillis, to simulate hardware that needs time to react.
+ */
+abstract class TheatreDevice {
+	
+	private long stepMillis;
+	private volatile boolean quiet;
+	
+	protected TheatreDevice(long stepMillis) {
+		this.stepMillis = stepMillis;
+	}
+	
+	/**
+	 * Stops printing operations, for benchmarks.
+	 */
+	public void setQuiet(boolean quiet) {
+		this.quiet = quiet;
+	}
+	
+	/**
+	 * Prints what the device does and waits for the simulated hardware to finish.
+	 */
+	protected void step(String message) {
+		if (!quiet)
+			System.out.println(message);
+		if (stepMillis == 0)
+			return;
+		try {
+			Thread.sleep(stepMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for " + getClass().getSimpleName(), e);
+		}
+	}
+}
 
 /**
  * Subsystem class representing the DVD Player.
  * Handles operations related to playing the movie.
  */
-class DvdPlayer {
+class DvdPlayer extends TheatreDevice {
+	
+	public DvdPlayer() {
+		this(0);
+	}
+	
+	/**
+	 * @param stepMillis time each operation takes
+	 */
+	public DvdPlayer(long stepMillis) {
+		super(stepMillis);
+	}
 	
 	/**
 	 * Turns the DVD player on.
 	 */
 	public void on() {
-		System.out.println("DVD player turning on");
+		step("DVD player turning on");
 	}
 	
 	/**
 	 * Turns the DVD player off.
 	 */
 	public void off() {
-		System.out.println("DVD player turning off");
+		step("DVD player turning off");
 	}
 	
 	/**
@@ -25,7 +76,7 @@ class DvdPlayer {
 	 * @param movie - Name of the movie to be played
 	 */
 	public void playMovie(String movie) {
-		System.out.println("Now playing: " + movie);
+		step("Now playing: " + movie);
 	}
 }
 
@@ -33,20 +84,31 @@ class DvdPlayer {
  * Subsystem class representing the Theatre Lights.
  * Handles lighting before and after the movie.
  */
-class TheatreLights {
+class TheatreLights extends TheatreDevice {
+	
+	public TheatreLights() {
+		this(0);
+	}
+	
+	/**
+	 * @param stepMillis time each operation takes
+	 */
+	public TheatreLights(long stepMillis) {
+		super(stepMillis);
+	}
 	
 	/**
 	 * Turns the lights on.
 	 */
 	public void on() {
-		System.out.println("Lights turning on");
+		step("Lights turning on");
 	}
 	
 	/**
 	 * Turns the lights off.
 	 */
 	public void off() {
-		System.out.println("Lights turning off");
+		step("Lights turning off");
 	}	
 }
 
@@ -54,27 +116,144 @@ class TheatreLights {
  * Subsystem class representing the Projector.
  * Handles screen and projection settings.
  */
-class Projector {
+class Projector extends TheatreDevice {
+	
+	public Projector() {
+		this(0);
+	}
+	
+	/**
+	 * @param stepMillis time each operation takes
+	 */
+	public Projector(long stepMillis) {
+		super(stepMillis);
+	}
 	
 	/**
 	 * Turns the projector on.
 	 */
 	public void on() {
-		System.out.println("Projector turning on");
+		step("Projector turning on");
 	}
 	
 	/**
 	 * Turns the projector off.
 	 */
 	public void off() {
-		System.out.println("Projector turning off");
+		step("Projector turning off");
 	}
 	
 	/**
 	 * Enables wide screen mode.
 	 */
 	public void wideScreenMode() {
-		System.out.println("Enabled: Wide screen mode");
+		step("Enabled: Wide screen mode");
+	}
+}
+
+/**
+ * Steps of a startup with the steps each one depends on.
+ * start() runs every step as soon as its dependencies are done, so independent steps overlap
+ * and the total time is the longest dependency chain. stop() runs the undo actions in the
+ * reverse order: a step is undone only after everything that depended on it.
+ */
+class SubsystemPlan {
+	
+	private Map<String, Step> steps = new LinkedHashMap<>();
+	
+	/**
+	 * Adds a step. Dependencies must already be in the plan, which also rules out cycles.
+	 * @param undo - action for stop(), or null if the step needs no undoing
+	 */
+	public SubsystemPlan step(String name, Runnable action, Runnable undo, String... dependsOn) {
+		if (steps.containsKey(name))
+			throw new IllegalArgumentException("Duplicate step " + name);
+		Step step = new Step(name, action, undo);
+		for (String dependency : dependsOn) {
+			Step required = steps.get(dependency);
+			if (required == null)
+				throw new IllegalArgumentException("Step " + name + " depends on unknown step " + dependency);
+			step.dependsOn.add(required);
+			required.dependents.add(step);
+		}
+		steps.put(name, step);
+		return this;
+	}
+	
+	/**
+	 * Names of all steps, in the order they were added.
+	 */
+	public Set<String> getStepNames() {
+		return Collections.unmodifiableSet(steps.keySet());
+	}
+	
+	/**
+	 * Runs all steps and waits for them. If a step fails, the steps depending on it are
+	 * skipped and the first failure is thrown once the rest are done.
+	 */
+	public void start(Executor executor) {
+		start(executor, Collections.emptySet());
+	}
+	
+	/**
+	 * Like start(), but treats the named steps as already done (e.g. a device still warm).
+	 */
+	public void start(Executor executor, Set<String> alreadyDone) {
+		Map<Step, CompletableFuture<Void>> done = new HashMap<>();
+		for (Step step : steps.values()) {  // insertion order puts dependencies first
+			CompletableFuture<Void> ready = allOf(step.dependsOn, done);
+			done.put(step, alreadyDone.contains(step.name) ? ready : ready.thenRunAsync(step.action, executor));
+		}
+		await(done.values(), "Startup");
+	}
+	
+	/**
+	 * Runs the undo actions, each after the undo of every step that depended on it.
+	 * A failed undo does not hold back the others; the first failure is thrown at the end.
+	 */
+	public void stop(Executor executor) {
+		stop(executor, Collections.emptySet());
+	}
+	
+	/**
+	 * Like stop(), but leaves the named steps in place (e.g. a device kept warm).
+	 */
+	public void stop(Executor executor, Set<String> keep) {
+		Map<Step, CompletableFuture<Void>> done = new HashMap<>();
+		List<Step> reversed = new ArrayList<>(steps.values());
+		Collections.reverse(reversed);
+		for (Step step : reversed) {
+			CompletableFuture<Void> ready = CompletableFuture.allOf(
+					step.dependents.stream().map(d -> done.get(d).exceptionally(e -> null)).toArray(CompletableFuture[]::new));
+			done.put(step, step.undo == null || keep.contains(step.name) ? ready : ready.thenRunAsync(step.undo, executor));
+		}
+		await(done.values(), "Shutdown");
+	}
+	
+	private static CompletableFuture<Void> allOf(List<Step> steps, Map<Step, CompletableFuture<Void>> done) {
+		return CompletableFuture.allOf(steps.stream().map(done::get).toArray(CompletableFuture[]::new));
+	}
+	
+	private static void await(Collection<CompletableFuture<Void>> futures, String phase) {
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			throw new IllegalStateException(phase + " failed", e.getCause());
+		}
+	}
+	
+	private static class Step {
+		final String name;
+		final Runnable action;
+		final Runnable undo;
+		final List<Step> dependsOn = new ArrayList<>();
+		final List<Step> dependents = new ArrayList<>();
+		
+		Step(String name, Runnable action, Runnable undo) {
+			this.name = name;
+			this.action = action;
+			this.undo = undo;
+		}
 	}
 }
 
@@ -84,12 +263,44 @@ class Projector {
  * projector, and lights by exposing two simple methods: watchMovie() and endMovie().
  *
  * This class demonstrates the Facade Design Pattern in action.
+ *
+ * Subsystems that do not depend on each other are started at the same time (see SubsystemPlan),
+ * so the start time is the slowest chain (projector on, then wide screen) rather than the sum.
+ *
+ * With a keep-warm time, endMovie() only turns the lights on and leaves the projector and DVD
+ * player in standby. A movie started before the time runs out skips their power-on (a warm
+ * start); otherwise they are powered off in the background, on a step thread and outside the
+ * facade lock, so facades sharing the standby timer power off at the same time.
  */
 class MovieFacade {
 	
+	// Subsystem steps mostly wait on hardware, so a thread per step is cheap
+	private static final ExecutorService STEPS = RemoteCalls.newThreadPerTaskExecutor("facade-step");
+	private static final ScheduledThreadPoolExecutor STANDBY_TIMER = new ScheduledThreadPoolExecutor(1, task -> {
+		Thread thread = new Thread(task, "facade-standby");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final Set<String> WARM_STEPS = Set.of("projector", "dvd");
+	
 	private DvdPlayer dvdPlayer;
 	private TheatreLights theatreLights;
 	private Projector projector;
+	private SubsystemPlan plan;
+	private Set<String> notWarmSteps;     // every step of the plan except WARM_STEPS
+	private long keepWarmMillis;
+	private volatile String movie;
+	private volatile boolean quiet;
+	
+	// written under this; read without it, so the pool can look for warm facades without waiting
+	private volatile boolean warm;        // projector and DVD player are on, in standby
+	
+	// guarded by this
+	private ScheduledFuture<?> powerOff;
+	private long standbys;                // lets a power-off from an earlier standby skip this one
+	private CompletableFuture<Void> poweringOff = CompletableFuture.completedFuture(null);
+	private long warmStarts;
+	private long coldStarts;
 	
 	/**
 	 * Constructor initializes all subsystem components.
@@ -98,32 +309,184 @@ class MovieFacade {
 	 * @param projector the projector to operate
 	 */
 	public MovieFacade(DvdPlayer dvdPlayer, TheatreLights theatreLights, Projector projector) {
+		this(dvdPlayer, theatreLights, projector, 0);
+	}
+	
+	/**
+	 * @param keepWarmMillis how long the projector and DVD player stay in standby after a movie;
+	 *                       0 powers them off right away
+	 */
+	public MovieFacade(DvdPlayer dvdPlayer, TheatreLights theatreLights, Projector projector, long keepWarmMillis) {
 		this.dvdPlayer = dvdPlayer;
 		this.theatreLights = theatreLights;
 		this.projector = projector;
+		this.keepWarmMillis = keepWarmMillis;
+		this.plan = new SubsystemPlan()
+				.step("lights", theatreLights::off, theatreLights::on)                  // Dim lights
+				.step("projector", projector::on, projector::off)                       // Turn on projector
+				.step("wideScreen", projector::wideScreenMode, null, "projector")       // Set screen mode
+				.step("dvd", dvdPlayer::on, dvdPlayer::off)                             // Power on DVD
+				.step("play", () -> dvdPlayer.playMovie(movie), null, "dvd", "wideScreen", "lights");
+		this.notWarmSteps = new HashSet<>(plan.getStepNames());
+		notWarmSteps.removeAll(WARM_STEPS);
 	}
 	
 	/**
 	 * Prepares and starts the movie by coordinating all subsystems.
 	 * This is the main method a client would call.
 	 */
-	public void watchMovie(String movie) {
-		System.out.println("\n--- Starting Movie ---");
-		theatreLights.off();             // Dim lights
-		projector.on();                  // Turn on projector
-		projector.wideScreenMode();      // Set screen mode
-		dvdPlayer.on();                  // Power on DVD
-		dvdPlayer.playMovie(movie);     // Play the selected movie
+	public synchronized void watchMovie(String movie) {
+		if (!quiet)
+			System.out.println("\n--- Starting Movie ---");
+		this.movie = movie;
+		if (powerOff != null) {
+			powerOff.cancel(false);
+			powerOff = null;
+		}
+		poweringOff.join();  // devices still powering off must finish before they are turned on again
+		if (warm) {
+			warmStarts++;
+			plan.start(STEPS, WARM_STEPS);
+		} else {
+			coldStarts++;
+			plan.start(STEPS);
+		}
+		warm = false;
 	}
 	
 	/**
 	 * Shuts down the movie setup by reversing the operations.
 	 */
-	public void endMovie() {
-		System.out.println("\n--- Movie Over ---");
-		theatreLights.on();             // Turn lights back on
-		projector.off();                // Turn off projector
-		dvdPlayer.off();                // Stop DVD player
+	public synchronized void endMovie() {
+		if (!quiet)
+			System.out.println("\n--- Movie Over ---");
+		if (keepWarmMillis == 0) {
+			plan.stop(STEPS);
+			return;
+		}
+		plan.stop(STEPS, WARM_STEPS);
+		warm = true;
+		long standby = ++standbys;
+		// The timer only hands the power-off to a step thread, so it never waits on hardware
+		powerOff = STANDBY_TIMER.schedule(() -> STEPS.execute(() -> powerOffIfIdle(standby)),
+				keepWarmMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * True while the projector and DVD player are in standby, so the next start is warm.
+	 */
+	public boolean isWarm() {
+		return warm;
+	}
+	
+	public synchronized long getWarmStarts() {
+		return warmStarts;
+	}
+	
+	public synchronized long getColdStarts() {
+		return coldStarts;
+	}
+	
+	/**
+	 * Stops printing for this facade and its subsystems, for benchmarks.
+	 */
+	public void setQuiet(boolean quiet) {
+		this.quiet = quiet;
+		dvdPlayer.setQuiet(quiet);
+		theatreLights.setQuiet(quiet);
+		projector.setQuiet(quiet);
+	}
+	
+	// Runs the power-off without holding the lock; watchMovie() waits for it through poweringOff
+	private void powerOffIfIdle(long standby) {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		synchronized (this) {
+			if (!warm || standby != standbys)
+				return;  // a movie started after this task was scheduled
+			warm = false;
+			powerOff = null;
+			poweringOff = done;
+		}
+		try {
+			plan.stop(STEPS, notWarmSteps);
+		} finally {
+			done.complete(null);
+		}
+	}
+}
+
+/**
+ * Pool of facades serving many screens.
+ * A screen borrows a facade for one movie and gives it back afterwards; the pool hands out
+ * facades still in standby first, so back-to-back shows reuse warm projectors and DVD players
+ * instead of paying their warm-up again.
+ */
+class MovieFacadePool {
+	
+	private Supplier<MovieFacade> factory;
+	private int maxFacades;
+	
+	// guarded by this
+	private List<MovieFacade> all = new ArrayList<>();
+	private Deque<MovieFacade> idle = new ArrayDeque<>();  // most recently released first
+	
+	/**
+	 * @param factory creates a facade (with its own keep-warm time) when no idle one is left
+	 * @param maxFacades facades allowed at the same time; acquire() waits beyond that
+	 */
+	public MovieFacadePool(Supplier<MovieFacade> factory, int maxFacades) {
+		this.factory = factory;
+		this.maxFacades = maxFacades;
+	}
+	
+	/**
+	 * Borrows a facade, preferring one that is still warm. isWarm() takes no facade lock, so a
+	 * facade busy powering off does not hold up the pool.
+	 */
+	public synchronized MovieFacade acquire() throws InterruptedException {
+		while (idle.isEmpty() && all.size() >= maxFacades)
+			wait();
+		for (Iterator<MovieFacade> it = idle.iterator(); it.hasNext(); ) {
+			MovieFacade facade = it.next();
+			if (facade.isWarm()) {
+				it.remove();
+				return facade;
+			}
+		}
+		if (!idle.isEmpty())
+			return idle.pollFirst();
+		MovieFacade facade = factory.get();
+		all.add(facade);
+		return facade;
+	}
+	
+	/**
+	 * Ends the movie on the facade and makes it available to other screens.
+	 */
+	public void release(MovieFacade facade) {
+		facade.endMovie();
+		synchronized (this) {
+			idle.addFirst(facade);
+			notifyAll();
+		}
+	}
+	
+	public synchronized long getWarmStarts() {
+		long total = 0;
+		for (MovieFacade facade : all)
+			total += facade.getWarmStarts();
+		return total;
+	}
+	
+	public synchronized long getColdStarts() {
+		long total = 0;
+		for (MovieFacade facade : all)
+			total += facade.getColdStarts();
+		return total;
+	}
+	
+	public synchronized int size() {
+		return all.size();
 	}
 }
 
@@ -148,5 +511,141 @@ public class HomeTheatreFacade {
 		
 		// End the movie
 		movieFacade.endMovie();
+		
+		checkCriticalPathTiming();
+		checkStandby();
+		printPoolReport();
+	}
+	
+	/**
+	 * Runs three shows on a keep-warm facade with slow subsystems: cold, warm within the
+	 * keep-warm time, and cold again once the power-off has begun (that start first waits for
+	 * the power-off to finish), checking start times and counters.
+	 */
+	static void checkStandby() {
+		MovieFacade facade = new MovieFacade(new DvdPlayer(200), new TheatreLights(100), new Projector(300), 600);
+		facade.setQuiet(true);
+		
+		long cold = timeStart(facade, "Dune");
+		facade.endMovie();
+		long warm = timeStart(facade, "Dune: Part Two");
+		facade.endMovie();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (facade.isWarm() && System.nanoTime() < deadline)
+			sleep(10);
+		boolean poweredOff = !facade.isWarm();
+		long coldAgain = timeStart(facade, "Arrival");
+		facade.endMovie();
+		
+		System.out.printf("standby: cold start %d ms, warm start %d ms, during power-off after keep-warm time %d ms%n", cold, warm, coldAgain);
+		// Cold: projector on + wide screen, then play = 800 ms. Warm skips the 300 ms projector on.
+		// A busy machine only adds time, so the checks allow any delay but no shortcut.
+		long coldPath = 800, warmPath = 500, clockSlack = 10;
+		if (cold < coldPath - clockSlack || coldAgain < coldPath - clockSlack || warm < warmPath - clockSlack
+				|| warm >= coldPath)
+			throw new IllegalStateException("Unexpected start times " + cold + "/" + warm + "/" + coldAgain);
+		if (!poweredOff || facade.getWarmStarts() != 1 || facade.getColdStarts() != 2)
+			throw new IllegalStateException("Standby did not expire as expected");
+	}
+	
+	/**
+	 * Four screens run eight short shows each through a pool of facades, once powering devices
+	 * off after every show and once keeping them warm, and compare the start times.
+	 */
+	static void printPoolReport() {
+		System.out.println("=== 4 screens x 8 shows, warm-up 160 ms cold / 100 ms warm ===");
+		for (long keepWarmMillis : new long[]{0, 1_000}) {
+			MovieFacadePool pool = new MovieFacadePool(() -> {
+				MovieFacade facade = new MovieFacade(new DvdPlayer(40), new TheatreLights(10), new Projector(60), keepWarmMillis);
+				facade.setQuiet(true);
+				return facade;
+			}, 4);
+			
+			long[] startNanos = new long[4];
+			Thread[] screens = new Thread[4];
+			for (int s = 0; s < screens.length; s++) {
+				int screen = s;
+				screens[s] = new Thread(() -> {
+					try {
+						for (int show = 0; show < 8; show++) {
+							MovieFacade facade = pool.acquire();
+							long begin = System.nanoTime();
+							facade.watchMovie("Show " + show);
+							startNanos[screen] += System.nanoTime() - begin;
+							sleep(20);
+							pool.release(facade);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+				screens[s].start();
+			}
+			for (Thread screen : screens) {
+				try {
+					screen.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			
+			long totalNanos = 0;
+			for (long nanos : startNanos)
+				totalNanos += nanos;
+			System.out.printf("keep warm %4d ms: %2d warm / %2d cold starts, average start %5.1f ms, %d facades%n",
+					keepWarmMillis, pool.getWarmStarts(), pool.getColdStarts(), totalNanos / 32 / 1e6, pool.size());
+		}
+	}
+	
+	private static long timeStart(MovieFacade facade, String movie) {
+		long begin = System.nanoTime();
+		facade.watchMovie(movie);
+		return (System.nanoTime() - begin) / 1_000_000;
+	}
+	
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Runs the facade with slow subsystems and checks that start and stop take the longest
+	 * dependency chain, not the sum of all steps.
+	 */
+	static void checkCriticalPathTiming() {
+		long lightsMillis = 100, projectorMillis = 300, dvdMillis = 200;
+		MovieFacade facade = new MovieFacade(new DvdPlayer(dvdMillis), new TheatreLights(lightsMillis),
+				new Projector(projectorMillis));
+		
+		// Start: projector on + wide screen is the longest chain before play
+		long startSequential = lightsMillis + 2 * projectorMillis + 2 * dvdMillis;
+		long startCritical = Math.max(2 * projectorMillis, Math.max(dvdMillis, lightsMillis)) + dvdMillis;
+		// Stop: the three undos are independent of each other
+		long stopSequential = lightsMillis + projectorMillis + dvdMillis;
+		long stopCritical = Math.max(lightsMillis, Math.max(projectorMillis, dvdMillis));
+		
+		facade.watchMovie("Warm up");  // first run pays class loading and thread start-up
+		facade.endMovie();
+		
+		long begin = System.nanoTime();
+		facade.watchMovie("Inception");
+		long startMillis = (System.nanoTime() - begin) / 1_000_000;
+		begin = System.nanoTime();
+		facade.endMovie();
+		long stopMillis = (System.nanoTime() - begin) / 1_000_000;
+		
+		System.out.println();
+		System.out.printf("start: %d ms (critical path %d ms, sequential %d ms)%n", startMillis, startCritical, startSequential);
+		System.out.printf("stop:  %d ms (critical path %d ms, sequential %d ms)%n", stopMillis, stopCritical, stopSequential);
+		// At least the critical path (within clock precision) and less than running the steps in sequence
+		long clockSlack = 10;
+		if (startMillis < startCritical - clockSlack || startMillis >= startSequential)
+			throw new IllegalStateException("Start took " + startMillis + " ms, expected about " + startCritical);
+		if (stopMillis < stopCritical - clockSlack || stopMillis >= stopSequential)
+			throw new IllegalStateException("Stop took " + stopMillis + " ms, expected about " + stopCritical);
 	}
 }
\ No newline at end of file
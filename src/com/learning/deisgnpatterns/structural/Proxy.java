@@ -1,5 +1,13 @@
 package com.learning.deisgnpatterns.structural;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
 /**
  * PROXY DESIGN PATTERN - JAVA IMPLEMENTATION
  * 
@@ -20,13 +28,71 @@ interface Image {
 // Real Subject - Resource-heavy object
 class RealImage implements Image {
 
+    // Files at least this large are memory-mapped instead of read into a pooled buffer
+    static final int MAP_THRESHOLD = 64 * 1024;
+    // A single mapping is limited to 2 GB, so larger files are mapped in windows of this size
+    static final long MAP_WINDOW = 1L << 30;
+
+    static DirectBufferPool smallBuffers = new DirectBufferPool(MAP_THRESHOLD);
+
     private String fileName;
+    private ByteBuffer[] data;
+    private boolean placeholder;
+    private volatile boolean released;
 
     /**
-     * Loads the image from disk (simulated).
+     * Loads the image bytes from disk. A missing file gives an empty placeholder image.
      */
     private void loadFromDisk() {
         System.out.println("Loading " + fileName + " from disk...");
+        try {
+            data = read(Paths.get(fileName));
+        } catch (NoSuchFileException e) {
+            System.out.println(fileName + " not found, showing a placeholder");
+            data = new ByteBuffer[0];
+            placeholder = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load image " + fileName, e);
+        }
+    }
+
+    /**
+     * Reads a file off the Java heap: large files are mapped read-only in windows of up to
+     * MAP_WINDOW bytes and paged in by the OS, small ones are read into a direct buffer from
+     * smallBuffers. Pass the result to release(buffers) once it is no longer read.
+     */
+    static ByteBuffer[] read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                ByteBuffer buffer = smallBuffers.allocate((int) size);
+                try {
+                    while (buffer.hasRemaining())
+                        if (channel.read(buffer) < 0)
+                            throw new EOFException("File shrank while reading: " + path);
+                } catch (IOException | RuntimeException e) {
+                    smallBuffers.release(buffer);
+                    throw e;
+                }
+                return new ByteBuffer[] { buffer.flip() };
+            }
+
+            ByteBuffer[] windows = new ByteBuffer[(int) ((size + MAP_WINDOW - 1) / MAP_WINDOW)];
+            for (int i = 0; i < windows.length; i++) {
+                long offset = i * MAP_WINDOW;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAP_WINDOW, size - offset));
+            }
+            return windows;
+        }
+    }
+
+    /**
+     * Hands buffers returned by read(path) back to the pool; mapped windows are left to the GC.
+     */
+    static void release(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers)
+            if (!buffer.isReadOnly())
+                smallBuffers.release(buffer);
     }
 
     /**
@@ -43,45 +109,620 @@ class RealImage implements Image {
     public void display() {
         System.out.println("Displaying: " + fileName);
     }
+
+    /**
+     * Returns the image bytes as read-only views, one per mapped window; nothing is copied.
+     * The views share the image's buffer, so they must not be read after release().
+     */
+    public ByteBuffer[] getData() {
+        if (released)
+            throw new IllegalStateException("Image was released: " + fileName);
+        ByteBuffer[] views = new ByteBuffer[data.length];
+        for (int i = 0; i < data.length; i++)
+            views[i] = data[i].asReadOnlyBuffer();
+        return views;
+    }
+
+    /**
+     * Bytes this image keeps allocated or mapped, used by ImageCache to enforce its byte budget.
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (ByteBuffer buffer : data)
+            bytes += buffer.capacity();
+        return bytes;
+    }
+
+    /**
+     * True when the file was missing and the image has no content.
+     */
+    public boolean isPlaceholder() {
+        return placeholder;
+    }
+
+    /**
+     * Returns the image's buffer to the pool for the next load. Called by ImageCache on eviction;
+     * getData() fails afterwards, display() still works.
+     */
+    public synchronized void release() {
+        if (released)
+            return;
+        released = true;
+        release(data);
+    }
+}
+
+// Reuses the direct buffers of small images, so loading and evicting them does not allocate
+// and free native memory each time. Buffers come in power-of-two size classes from 1 KB up to
+// maxBytes; a request gets the smallest class that fits, with its limit set to the size asked for.
+// Each class keeps at most MAX_FREE_BYTES of returned buffers, the rest are left to the GC.
+class DirectBufferPool {
+
+    private static final int MIN_CLASS_SHIFT = 10;
+    private static final long MAX_FREE_BYTES = 4L * 1024 * 1024;
+
+    // Index: size class, Value: returned buffers of that class; guarded by this
+    private List<ArrayDeque<ByteBuffer>> free = new ArrayList<>();
+    private LongAdder allocations = new LongAdder();
+    private LongAdder reuses = new LongAdder();
+
+    public DirectBufferPool(int maxBytes) {
+        for (int i = 0; i <= sizeClass(maxBytes); i++)
+            free.add(new ArrayDeque<>());
+    }
+
+    public ByteBuffer allocate(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass >= free.size())
+            throw new IllegalArgumentException("Too large for the pool: " + size + " bytes");
+
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = free.get(sizeClass).pollFirst();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_CLASS_SHIFT));
+            allocations.increment();
+        } else {
+            reuses.increment();
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Takes back a buffer from allocate(); the caller must not use it afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass >= free.size() || buffer.capacity() != 1 << (sizeClass + MIN_CLASS_SHIFT))
+            throw new IllegalArgumentException("Not a pooled buffer: " + buffer);
+        synchronized (this) {
+            ArrayDeque<ByteBuffer> buffers = free.get(sizeClass);
+            if ((long) (buffers.size() + 1) * buffer.capacity() <= MAX_FREE_BYTES)
+                buffers.push(buffer);
+        }
+    }
+
+    /**
+     * Buffers allocated from native memory because no returned buffer of their class was free.
+     */
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    public long getReuses() {
+        return reuses.sum();
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= 1 << MIN_CLASS_SHIFT)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+}
+
+// Process-wide cache of loaded images shared by every ProxyImage.
+// Evicts the least recently used image once the entry or byte budget is exceeded, handing its
+// buffer back to the pool, and lets only one thread load a given file while the others wait for its result.
+class ImageCache {
+
+    private static class Holder {
+        private static ImageCache instance = new ImageCache(256, 256L * 1024 * 1024);
+    }
+
+    /**
+     * Returns the cache used by ProxyImage unless another one is passed in.
+     */
+    public static ImageCache getInstance() {
+        return Holder.instance;
+    }
+
+    private int maxEntries;
+    private long maxBytes;
+    private long usedBytes;
+
+    // Access-ordered, so iteration starts at the least recently used image
+    private LinkedHashMap<String, RealImage> images = new LinkedHashMap<>(16, 0.75f, true);
+    // Loads in progress, keyed by file name (single flight)
+    private ConcurrentMap<String, CompletableFuture<RealImage>> loading = new ConcurrentHashMap<>();
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    public ImageCache(int maxEntries, long maxBytes) {
+        setBudget(maxEntries, maxBytes);
+    }
+
+    /**
+     * Returns the cached image, loading it from disk on a miss.
+     * Concurrent misses for the same file share a single load, which counts as one miss;
+     * callers served by someone else's load count as hits.
+     */
+    public RealImage get(String fileName) {
+        synchronized (this) {
+            RealImage image = images.get(fileName);
+            if (image != null) {
+                hits.incrementAndGet();
+                return image;
+            }
+        }
+
+        CompletableFuture<RealImage> load = new CompletableFuture<>();
+        CompletableFuture<RealImage> existing = loading.putIfAbsent(fileName, load);
+        if (existing != null) {
+            hits.incrementAndGet();
+            return join(existing);
+        }
+
+        try {
+            // Another thread may have finished loading between the lookup and putIfAbsent
+            RealImage image;
+            synchronized (this) {
+                image = images.get(fileName);
+            }
+            if (image == null) {
+                misses.incrementAndGet();
+                image = new RealImage(fileName);
+                // Not cached, so the file is picked up once it appears
+                if (!image.isPlaceholder())
+                    put(fileName, image);
+            } else {
+                hits.incrementAndGet();
+            }
+            load.complete(image);
+            return image;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(fileName, load);
+        }
+    }
+
+    /**
+     * Changes the budget, evicting images right away if the cache is now over it.
+     */
+    public synchronized void setBudget(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0)
+            throw new IllegalArgumentException("Budget must be positive: " + maxEntries + " entries, " + maxBytes + " bytes");
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        evictIfNeeded();
+    }
+
+    /**
+     * Drops every cached image (counters are kept) and releases their buffers.
+     */
+    public synchronized void clear() {
+        for (RealImage image : images.values())
+            image.release();
+        images.clear();
+        usedBytes = 0;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return images.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private synchronized void put(String fileName, RealImage image) {
+        RealImage previous = images.put(fileName, image);
+        if (previous != null) {
+            usedBytes -= previous.getSizeInBytes();
+            previous.release();
+        }
+        usedBytes += image.getSizeInBytes();
+        evictIfNeeded();
+    }
+
+    // Keeps at least the newest image, even if it alone is larger than the byte budget
+    private void evictIfNeeded() {
+        Iterator<RealImage> eldest = images.values().iterator();
+        while (images.size() > 1 && (images.size() > maxEntries || usedBytes > maxBytes)) {
+            RealImage image = eldest.next();
+            usedBytes -= image.getSizeInBytes();
+            eldest.remove();
+            image.release();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits for the future, rethrowing the loader's own exception instead of a CompletionException.
+     */
+    static <T> T join(CompletableFuture<T> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }
 }
 
-// Proxy - Controls access to RealImage (lazy loading here)
+// Proxy - Controls access to RealImage (lazy loading through the shared ImageCache)
 class ProxyImage implements Image {
 
     private String fileName;
-    private RealImage realImage;
+    private ImageCache cache;
 
     /**
      * Constructor stores fileName but delays RealImage loading.
      */
     public ProxyImage(String fileName) {
+        this(fileName, ImageCache.getInstance());
+    }
+
+    /**
+     * Uses the given cache instead of the process-wide one.
+     */
+    public ProxyImage(String fileName, ImageCache cache) {
         this.fileName = fileName;
+        this.cache = cache;
     }
 
     /**
-     * Displays the image by loading it only if necessary (lazy init).
+     * Displays the image, loading it only if no proxy has it cached (lazy init).
+     * The proxy does not hold on to the RealImage itself, so evicted images can be freed.
      */
     public void display() {
-        if (realImage == null) {
-            realImage = new RealImage(fileName); // Lazy loading
+        cache.get(fileName).display(); // Delegates to real object
+    }
+}
+
+// Proxy - Thread-safe variant that loads exactly once and can warm the image in the background.
+// It remembers only a load in progress; a finished image is looked up again in the ImageCache,
+// so the proxy never keeps an evicted image alive.
+class AsyncProxyImage implements Image {
+
+    private static class Loader {
+        private static ExecutorService executor = Executors.newFixedThreadPool(4, task -> {
+            Thread thread = new Thread(task, "image-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private String fileName;
+    private ImageCache cache;
+    private Executor executor;
+
+    // Load in progress, set by the first caller and cleared when it finishes
+    private AtomicReference<CompletableFuture<Image>> loading = new AtomicReference<>();
+
+    public AsyncProxyImage(String fileName) {
+        this(fileName, ImageCache.getInstance(), Loader.executor);
+    }
+
+    /**
+     * Uses the given cache and runs loads on the given executor.
+     */
+    public AsyncProxyImage(String fileName, ImageCache cache, Executor executor) {
+        this.fileName = fileName;
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts loading the image in the background without blocking the caller.
+     * Calls made while a load is running share it; later calls fetch the image from the cache
+     * again, which is a hit unless it was evicted, and a failed load is retried.
+     */
+    public CompletableFuture<Image> prefetch() {
+        while (true) {
+            CompletableFuture<Image> current = loading.get();
+            if (current != null)
+                return current.copy();
+
+            CompletableFuture<Image> load = new CompletableFuture<>();
+            if (loading.compareAndSet(null, load))
+                return start(load);
         }
-        realImage.display(); // Delegates to real object
+    }
+
+    private CompletableFuture<Image> start(CompletableFuture<Image> load) {
+        load.whenComplete((loaded, error) -> loading.compareAndSet(load, null));
+        try {
+            executor.execute(() -> {
+                try {
+                    load.complete(cache.get(fileName));
+                } catch (Throwable e) {
+                    load.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            load.completeExceptionally(e);
+        }
+        return load.copy();
+    }
+
+    /**
+     * Displays the image, waiting for the load started by prefetch() or starting one now.
+     */
+    public void display() {
+        ImageCache.join(prefetch()).display();
     }
 }
 
 // Client
 public class Proxy {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException, IOException {
+
+        Path folder = Files.createTempDirectory("images");
+        String fileName = writeFile(folder.resolve("image.jpg"), 200 * 1024).toString();
 
         // Proxy holds off on loading until display() is called
-        Image image = new ProxyImage("image.jpg");
+        Image image = new ProxyImage(fileName);
 
         // Image will now be loaded from disk and displayed
         image.display();
 
         // This time, it doesn't reload — just displays
         image.display();
+
+        // A second proxy for the same file reuses the cached image
+        Image sameFile = new ProxyImage(fileName);
+        sameFile.display();
+
+        ImageCache cache = ImageCache.getInstance();
+        System.out.println("Cache hits: " + cache.getHits() + ", misses: " + cache.getMisses()
+                + ", evictions: " + cache.getEvictions());
+
+        // A missing file shows a placeholder instead of failing
+        new ProxyImage("image.jpg").display();
+
+        System.out.println();
+        checkSingleAsyncLoad(writeFile(folder.resolve("banner.png"), 4 * 1024).toString());
+
+        System.out.println();
+        checkBufferReuse(folder);
+        checkLargeFileMapping(folder);
+        printReadBenchmark(folder);
+
+        cache.clear();
+        Files.delete(folder.resolve("image.jpg"));
+        Files.delete(folder.resolve("banner.png"));
+        Files.delete(folder);
     }
-}
 
+    /**
+     * Races 64 threads on one AsyncProxyImage, half calling display() and half prefetch(),
+     * and checks that the image was loaded exactly once and is not pinned by the proxy. Then races 64 threads on
+     * ImageCache.get and checks that the shared load counts as one miss.
+     */
+    static void checkSingleAsyncLoad(String fileName) throws InterruptedException {
+        ImageCache cache = new ImageCache(16, Long.MAX_VALUE);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        AsyncProxyImage image = new AsyncProxyImage(fileName, cache, executor);
+
+        int callers = 64;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        Set<Image> seen = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < callers; i++) {
+            boolean displays = i % 2 == 0;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (displays)
+                    image.display();
+                else
+                    seen.add(image.prefetch().join());
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        if (cache.getMisses() != 1 || seen.size() != 1)
+            throw new IllegalStateException("Expected a single load, got " + cache.getMisses() + " misses, "
+                    + seen.size() + " images");
+        System.out.println(callers + " racing callers, loads: " + cache.getMisses());
+
+        // The proxy holds no image of its own: once the cache drops it, the next display reloads
+        cache.clear();
+        image.display();
+        executor.shutdown();
+        if (cache.getMisses() != 2)
+            throw new IllegalStateException("Proxy kept an evicted image alive");
+
+        // Callers waiting on a load in progress are hits; only the load itself is a miss
+        ImageCache shared = new ImageCache(16, Long.MAX_VALUE);
+        CountDownLatch go = new CountDownLatch(1);
+        threads.clear();
+        for (int i = 0; i < callers; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                shared.get(fileName);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        if (shared.getMisses() != 1 || shared.getHits() != callers - 1)
+            throw new IllegalStateException("Expected 1 miss and " + (callers - 1) + " hits, got "
+                    + shared.getMisses() + " misses, " + shared.getHits() + " hits");
+    }
+
+    /**
+     * Loads two small images alternately through a one-entry cache, so each load evicts the
+     * other image, and checks that the evicted buffers are reused with the right bytes in them.
+     */
+    static void checkBufferReuse(Path folder) throws IOException {
+        Path first = writeFile(folder.resolve("icon-a.png"), 3 * 1024);
+        Path second = writeFile(folder.resolve("icon-b.png"), 4 * 1024);
+        try {
+            ImageCache cache = new ImageCache(1, Long.MAX_VALUE);
+            DirectBufferPool pool = RealImage.smallBuffers;
+            long allocations = pool.getAllocations();
+            long reuses = pool.getReuses();
+            for (int round = 0; round < 4; round++) {
+                Path file = round % 2 == 0 ? first : second;
+                ByteBuffer data = cache.get(file.toString()).getData()[0];
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                if (!Arrays.equals(bytes, Files.readAllBytes(file)))
+                    throw new IllegalStateException("Reused buffer holds the wrong bytes for " + file.getFileName());
+            }
+            cache.clear();
+            long allocated = pool.getAllocations() - allocations;
+            long reused = pool.getReuses() - reuses;
+            if (allocated + reused != 4 || reused < 2)
+                throw new IllegalStateException("Expected evicted buffers to be reused, got " + allocated
+                        + " allocations, " + reused + " reuses");
+            System.out.println("4 loads with evictions: " + allocated + " buffers allocated, " + reused + " reused");
+        } finally {
+            Files.delete(first);
+            Files.delete(second);
+        }
+    }
+
+    /**
+     * Reads a sparse 3 GB file, which a single mapping cannot hold, and checks that it is mapped
+     * in windows covering every byte.
+     */
+    static void checkLargeFileMapping(Path folder) throws IOException {
+        long size = 3L << 30;
+        Path file = folder.resolve("large.bin");
+        try (RandomAccessFile sparse = new RandomAccessFile(file.toFile(), "rw")) {
+            sparse.setLength(size);
+            sparse.seek(size - 1);
+            sparse.write(42);
+        }
+        try {
+            ByteBuffer[] windows = RealImage.read(file);
+            long mapped = 0;
+            for (ByteBuffer window : windows)
+                mapped += window.capacity();
+            ByteBuffer last = windows[windows.length - 1];
+            if (windows.length != 3 || mapped != size || last.get(last.limit() - 1) != 42)
+                throw new IllegalStateException("3 GB file mapped as " + windows.length + " windows, " + mapped + " bytes");
+            System.out.println("3 GB image mapped in " + windows.length + " windows");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Compares Files.readAllBytes with RealImage.read (pooled direct buffer or mapping) for
+     * files from 4 KB to 512 MB. Both paths touch every byte so the mapped pages are really read.
+     */
+    static void printReadBenchmark(Path folder) throws IOException {
+        System.out.println("=== Image read throughput (MB/s, page cache warm) ===");
+        System.out.printf("%10s %14s %14s%n", "size", "readAllBytes", "RealImage.read");
+        for (long size : new long[] { 4 << 10, 64 << 10, 1 << 20, 16 << 20, 128 << 20, 512 << 20 }) {
+            if (Runtime.getRuntime().maxMemory() < 3 * size || folder.toFile().getUsableSpace() < 2 * size) {
+                System.out.printf("%10s %29s%n", label(size), "skipped (not enough memory or disk)");
+                continue;
+            }
+
+            Path file = writeFile(folder.resolve("bench-" + size + ".bin"), size);
+            int iterations = (int) Math.max(1, Math.min(2000, (256L << 20) / size));
+            long checksum = 0;
+
+            checksum += sum(Files.readAllBytes(file));
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                checksum += sum(Files.readAllBytes(file));
+            double heapRate = size * iterations / 1e6 / ((System.nanoTime() - begin) / 1e9);
+
+            checksum += sumAndRelease(RealImage.read(file));
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                checksum += sumAndRelease(RealImage.read(file));
+            double directRate = size * iterations / 1e6 / ((System.nanoTime() - begin) / 1e9);
+
+            Files.delete(file);
+            blackhole += checksum;
+            System.out.printf("%10s %14.0f %14.0f%n", label(size), heapRate, directRate);
+        }
+    }
+
+    // Keeps the JIT from dropping the checksum loops
+    private static volatile long blackhole;
+
+    private static Path writeFile(Path path, long size) throws IOException {
+        byte[] block = new byte[64 * 1024];
+        new Random(size).nextBytes(block);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            for (long written = 0; written < size; written += block.length)
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+        }
+        return path;
+    }
+
+    private static long sum(byte[] bytes) {
+        long sum = 0;
+        for (byte b : bytes)
+            sum += b;
+        return sum;
+    }
+
+    private static long sumAndRelease(ByteBuffer[] buffers) {
+        long sum = 0;
+        for (ByteBuffer buffer : buffers)
+            for (int i = buffer.position(); i < buffer.limit(); i++)
+                sum += buffer.get(i);
+        RealImage.release(buffers);
+        return sum;
+    }
+
+    private static String label(long size) {
+        return size >= 1 << 20 ? (size >> 20) + " MB" : (size >> 10) + " KB";
+    }
+}
@@ -0,0 +1,61 @@
+package com.learning.deisgnpatterns.structural;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Helpers for calls to slow remote systems, shared by the payment gateways of the Adapter
+ * example, the networked devices of the Bridge example and the home theatre subsystems.
+ */
+public final class RemoteCalls {
+
+    // One daemon timer for every call timeout; cancelled timeouts are dropped from its queue
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "remote-call-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private RemoteCalls() {
+    }
+
+    /**
+     * Returns an executor for tasks that spend most of their time waiting. On a JDK with virtual
+     * threads (21+) every task gets its own virtual thread. Older JDKs such as 17 have no
+     * Executors.newVirtualThreadPerTaskExecutor, so there it falls back to a cached pool of daemon
+     * platform threads, which starts a thread per task unless an idle one can be reused.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threads = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, name + "-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Gives the call timeoutMillis to complete the result. If it has not by then, the result is
+     * completed with the timedOut value, onTimeout runs and the call is interrupted.
+     * The timer is cancelled as soon as the result completes any other way.
+     */
+    public static <T> void timeout(CompletableFuture<T> result, Future<?> call, long timeoutMillis,
+            Supplier<T> timedOut, Runnable onTimeout) {
+        ScheduledFuture<?> timeout = TIMER.schedule(() -> {
+            if (result.complete(timedOut.get())) {
+                onTimeout.run();
+                call.cancel(true);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((r, e) -> timeout.cancel(false));
+    }
+}
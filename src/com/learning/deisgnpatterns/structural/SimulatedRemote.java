@@ -0,0 +1,64 @@
+package com.learning.deisgnpatterns.structural;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for a system behind a network hop, shared by the simulated payment gateways of
+ * the Adapter example and the simulated devices of the Bridge example. Every call costs one round
+ * trip; a share of calls can be made slow, and all of them can be made to fail.
+ */
+public abstract class SimulatedRemote {
+
+    private String name;
+    private long latencyMillis;
+    private AtomicInteger calls = new AtomicInteger();
+
+    private volatile boolean failing;
+    private volatile double tailProbability;  // share of calls that take tailMillis instead
+    private volatile long tailMillis;
+
+    protected SimulatedRemote(String name, long latencyMillis) {
+        this.name = name;
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Makes every following call fail after its round trip (or succeed again).
+     */
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    /**
+     * Makes the given share of calls take tailMillis, to simulate a slow tail or unresponsive peers.
+     */
+    public void setTail(double probability, long tailMillis) {
+        this.tailMillis = tailMillis;
+        this.tailProbability = probability;
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Waits for one simulated round trip, then fails if the remote is set to fail.
+     */
+    protected void roundTrip() {
+        calls.incrementAndGet();
+        long millis = ThreadLocalRandom.current().nextDouble() < tailProbability ? tailMillis : latencyMillis;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while talking to " + name, e);
+        }
+        if (failing)
+            throw new IllegalStateException(name + " did not respond");
+    }
+}